@@ -2,8 +2,8 @@ package cli;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Scanner;
-import java.util.TreeSet;
 import java.util.zip.DataFormatException;
 
 import core.Person;
@@ -58,7 +58,7 @@ class FamilyTreeCLI {
     }
 
     private void outputDataAboutEveryoneByID(PersonStore personStore) {
-        TreeSet<Person> people = personStore.getEveryoneByID();
+        Collection<Person> people = personStore.getEveryoneByID();
         String[][] data = new String[people.size() + 1][];
 
         data[0] = new String[] {"ID", "Full Name", "Sex", "Date of Birth",
@@ -84,7 +84,7 @@ class FamilyTreeCLI {
     }
 
     private void outputDetailsAboutEveryoneByID(PersonStore personStore) {
-        TreeSet<Person> people = personStore.getEveryoneByID();
+        Collection<Person> people = personStore.getEveryoneByID();
         String[][] data = new String[people.size() + 1][];
 
         data[0] = new String[] {"Full Name", "Sex", "Date of Birth",
@@ -0,0 +1,265 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * Everyone's ancestors as a sorted array of IDs per person, so whether
+ * someone is an ancestor of someone else is a binary search and the
+ * ancestors two people have in common is a merge of two arrays, rather than
+ * walking up through parents each time. Someone's ancestors are their
+ * parents and their parents' ancestors so they are worked out going down the
+ * tree, after everyone above them.
+ *
+ * When someone's parents change only their own and their descendants'
+ * ancestors change so only those are worked out again, in an order where
+ * everyone's parents among them come first. Which descendants are being
+ * worked out is kept in arrays indexed by ID that are reused, with a stamp
+ * per entry saying which update wrote it.
+ *
+ * Everyone holds all of their ancestors so the memory needed grows with how
+ * many generations there are, which is why it is only used if asked for.
+ */
+class AncestorIndex {
+    private static final int[] NONE = new int[0];
+
+    private final PersonStore personStore;
+    private int[][] ancestors;
+    private int stamp;
+    private int[] stamps;
+    private int[] parentsLeft;
+    private int[] queue;
+
+    AncestorIndex(PersonStore personStore) {
+        this.personStore = personStore;
+        this.ancestors = new int[0][];
+        this.stamp = 0;
+        this.stamps = new int[0];
+        this.parentsLeft = new int[0];
+        this.queue = new int[0];
+    }
+
+    /**
+     * Work out everyone's ancestors from scratch
+     */
+    void build() {
+        int bound = this.personStore.getIDBound();
+        this.ancestors = new int[bound][];
+
+        // order everyone by their generation so parents come first
+        int[] generations = this.personStore.generations();
+        long[] order = new long[this.personStore.people().size()];
+        int size = 0;
+        for (Person person: this.personStore.people()) {
+            order[size++] = ((long) generations[person.getID()] << 32) | person.getID();
+        }
+        Arrays.sort(order);
+        for (long generationAndID: order) {
+            this.compute(this.personStore.lookup((int) generationAndID));
+        }
+    }
+
+    /**
+     * Add the given person who has just been stored with no links yet
+     */
+    void add(Person person) {
+        this.ensureSize(person.getID());
+        this.ancestors[person.getID()] = NONE;
+    }
+
+    /**
+     * Forget the person with the given ID once they are no longer stored.
+     * Anyone who was their child must then be updated.
+     */
+    void remove(int ID) {
+        if (ID < this.ancestors.length) {
+            this.ancestors[ID] = null;
+        }
+    }
+
+    /**
+     * Work out the ancestors of the given person and all their descendants
+     * again after the person's parents have changed
+     */
+    void update(Person person) {
+        this.start();
+
+        // find the person and their descendants
+        int head = 0;
+        int tail = 0;
+        this.stamps[person.getID()] = this.stamp;
+        this.queue[tail++] = person.getID();
+        while (head < tail) {
+            Person descendant = this.personStore.lookup(this.queue[head++]);
+            int numChildren = descendant.getNumChildren();
+            for (int i = 0; i < numChildren; i++) {
+                int childID = descendant.getChildID(i);
+                if (this.stamps[childID] != this.stamp) {
+                    this.stamps[childID] = this.stamp;
+                    this.queue[tail++] = childID;
+                }
+            }
+        }
+
+        // count how many of each one's parents are among them
+        for (int i = 0; i < tail; i++) {
+            Person descendant = this.personStore.lookup(this.queue[i]);
+            this.parentsLeft[descendant.getID()] = (this.isUpdating(this.personStore.lookupMother(descendant)) ? 1 : 0)
+                                                 + (this.isUpdating(this.personStore.lookupFather(descendant)) ? 1 : 0);
+        }
+
+        // work each one out once all their parents among them have been,
+        // reusing the queue since the person is always first
+        head = 0;
+        tail = 1;
+        while (head < tail) {
+            Person descendant = this.personStore.lookup(this.queue[head++]);
+            this.compute(descendant);
+            int numChildren = descendant.getNumChildren();
+            for (int i = 0; i < numChildren; i++) {
+                int childID = descendant.getChildID(i);
+                if (--this.parentsLeft[childID] == 0) {
+                    this.queue[tail++] = childID;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return whether the given ancestor is one of the given person's
+     * ancestors, not counting themself
+     */
+    boolean isAncestor(Person ancestor, Person person) {
+        return Arrays.binarySearch(this.ancestors[person.getID()], ancestor.getID()) >= 0;
+    }
+
+    /**
+     * Return the IDs of everyone who is an ancestor of both given people in
+     * order of ID
+     */
+    int[] commonAncestors(Person person, Person relative) {
+        int[] first = this.ancestors[person.getID()];
+        int[] second = this.ancestors[relative.getID()];
+        int[] common = new int[Math.min(first.length, second.length)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                common[size++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(common, size);
+    }
+
+    /**
+     * Return whether the two given people are the same or one is an ancestor
+     * of the other or they have an ancestor in common, without allocating
+     */
+    boolean isRelated(Person person, Person relative) {
+        if (person == relative || this.isAncestor(person, relative) || this.isAncestor(relative, person)) {
+            return true;
+        }
+        int[] first = this.ancestors[person.getID()];
+        int[] second = this.ancestors[relative.getID()];
+        int i = 0;
+        int j = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isUpdating(Person person) {
+        return person != null && this.stamps[person.getID()] == this.stamp;
+    }
+
+    /**
+     * Work out the ancestors of the given person from those of their parents
+     */
+    private void compute(Person person) {
+        int[] fromMother = withParent(this.ancestors, this.personStore.lookupMother(person));
+        int[] fromFather = withParent(this.ancestors, this.personStore.lookupFather(person));
+        this.ensureSize(person.getID());
+        this.ancestors[person.getID()] = union(fromMother, fromFather);
+    }
+
+    /**
+     * Return the given parent and their ancestors in order of ID, or nothing
+     * if they are unknown
+     */
+    private static int[] withParent(int[][] ancestors, Person parent) {
+        if (parent == null) {
+            return NONE;
+        }
+        int[] above = ancestors[parent.getID()];
+        int[] out = new int[above.length + 1];
+        int at = -Arrays.binarySearch(above, parent.getID()) - 1;
+        System.arraycopy(above, 0, out, 0, at);
+        out[at] = parent.getID();
+        System.arraycopy(above, at, out, at + 1, above.length - at);
+        return out;
+    }
+
+    /**
+     * Return the IDs in either of the given sorted arrays in order of ID
+     */
+    private static int[] union(int[] first, int[] second) {
+        if (first.length == 0) {
+            return second;
+        }
+        if (second.length == 0) {
+            return first;
+        }
+        int[] out = new int[first.length + second.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < first.length || j < second.length) {
+            if (j == second.length || (i < first.length && first[i] < second[j])) {
+                out[size++] = first[i++];
+            } else if (i == first.length || first[i] > second[j]) {
+                out[size++] = second[j++];
+            } else {
+                out[size++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        return size == out.length ? out : Arrays.copyOf(out, size);
+    }
+
+    /**
+     * Start a new update with a new stamp, making the arrays big enough for
+     * everyone stored
+     */
+    private void start() {
+        int size = this.personStore.getIDBound();
+        this.ensureSize(size - 1);
+        if (this.stamps.length < size || this.stamp == Integer.MAX_VALUE) {
+            size = Math.max(size, this.stamps.length * 2);
+            this.stamps = new int[size];
+            this.parentsLeft = new int[size];
+            this.queue = new int[size];
+            this.stamp = 0;
+        }
+        this.stamp++;
+    }
+
+    private void ensureSize(int ID) {
+        if (ID >= this.ancestors.length) {
+            this.ancestors = Arrays.copyOf(this.ancestors, Math.max(ID + 1, this.ancestors.length * 2));
+        }
+    }
+}
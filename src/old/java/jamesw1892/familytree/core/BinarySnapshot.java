@@ -0,0 +1,282 @@
+package core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.function.ToIntFunction;
+import java.util.zip.DataFormatException;
+
+/**
+ * Compact binary copy of the file of people that is much faster to read
+ * since nothing needs parsing or decoding. It is written alongside the file
+ * whenever the file is written and records the size and last modified time
+ * the file had. It is only read if the file still has exactly those, so the
+ * file is still the one to edit by hand, even if it is replaced with an
+ * older copy.
+ *
+ * The snapshot is laid out as:
+ * - A header of the magic number, version, size and last modified time in
+ *   milliseconds of the file it is a copy of, and number of people
+ * - A string table of every distinct string, each as its length in bytes
+ *   followed by the UTF-8 bytes
+ * - A column for each field with a fixed width value per person. Strings are
+ *   indexes into the string table and unknown values are 0 (or -1 for
+ *   booleans)
+ * - The IDs of the children of each person as an offset per person into a
+ *   single array of all children
+ */
+class BinarySnapshot {
+    private static final int MAGIC = 0x46544231; // "FTB1"
+    private static final int VERSION = 2;
+
+    // Bytes from the start to the end of the file's size and modified time
+    private static final int FILE_HEADER_SIZE = 2 * Integer.BYTES + 2 * Long.BYTES;
+
+    /**
+     * Return the path of the snapshot kept alongside the given file of people
+     */
+    static Path pathFor(String filename) {
+        return Path.of(filename + ".bin");
+    }
+
+    /**
+     * Return whether the snapshot at the given path exists and was written
+     * from the given file as it is now, the same size and last modified at
+     * the same time, so can be read instead
+     */
+    static boolean isFresh(Path snapshot, Path file) throws IOException {
+        if (!Files.exists(snapshot) || !Files.exists(file)) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) != -1) {}
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        header.flip();
+        if (header.remaining() < FILE_HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+            return false;
+        }
+        return header.getLong() == Files.size(file)
+            && header.getLong() == Files.getLastModifiedTime(file).toMillis();
+    }
+
+    /**
+     * Write the given people to a snapshot at the given path as a copy of the
+     * given file, which must already have been written, replacing the old
+     * snapshot only once the new one is complete
+     */
+    static void write(Path path, Path file, Collection<Person> people) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)));
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(Files.size(file));
+            out.writeLong(Files.getLastModifiedTime(file).toMillis());
+            out.writeInt(people.size());
+
+            // string table
+            HashMap<String, Integer> stringIndexes = new HashMap<>();
+            ArrayList<String> strings = new ArrayList<>();
+            for (Person person: people) {
+                for (String s: new String[] {person.getNameFirst(), person.getNameMiddles(), person.getNameLast(), person.getNotes()}) {
+                    if (!stringIndexes.containsKey(s)) {
+                        stringIndexes.put(s, strings.size());
+                        strings.add(s);
+                    }
+                }
+            }
+            out.writeInt(strings.size());
+            for (String s: strings) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            // columns
+            writeInts(out, people, person -> person.getID());
+            writeInts(out, people, person -> stringIndexes.get(person.getNameFirst()));
+            writeInts(out, people, person -> stringIndexes.get(person.getNameMiddles()));
+            writeInts(out, people, person -> stringIndexes.get(person.getNameLast()));
+            writeBytes(out, people, person -> booleanToByte(person.getIsMale()));
+            writeShorts(out, people, person -> optionalToInt(person.getBirthYear()));
+            writeBytes(out, people, person -> optionalToInt(person.getBirthMonth()));
+            writeBytes(out, people, person -> optionalToInt(person.getBirthDay()));
+            writeBytes(out, people, person -> booleanToByte(person.getIsLiving()));
+            writeShorts(out, people, person -> optionalToInt(person.getDeathYear()));
+            writeBytes(out, people, person -> optionalToInt(person.getDeathMonth()));
+            writeBytes(out, people, person -> optionalToInt(person.getDeathDay()));
+            writeInts(out, people, person -> stringIndexes.get(person.getNotes()));
+            writeInts(out, people, person -> optionalToInt(person.getMotherID()));
+            writeInts(out, people, person -> optionalToInt(person.getFatherID()));
+
+            // children
+            int offset = 0;
+            for (Person person: people) {
+                out.writeInt(offset);
+                offset += person.getNumChildren();
+            }
+            out.writeInt(offset);
+            for (Person person: people) {
+                for (int i = 0; i < person.getNumChildren(); i++) {
+                    out.writeInt(person.getChildID(i));
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Return everyone in the snapshot at the given path in order of ID and
+     * load their children into the given index. Return null if there is no
+     * snapshot.
+     */
+    static ArrayList<Person> read(Path path, ChildIndex childIndex) throws IOException, DataFormatException {
+        // read into memory rather than mapping it since a mapping stays
+        // until it is garbage collected and on Windows the snapshot can't be
+        // replaced until then
+        ByteBuffer in;
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new DataFormatException("Snapshot of people is too big");
+                }
+                in = ByteBuffer.allocate((int) size);
+                while (in.hasRemaining() && channel.read(in) != -1) {}
+                in.flip();
+            } finally {
+                channel.close();
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+                throw new DataFormatException("Not a snapshot of people or the wrong version");
+            }
+            in.position(FILE_HEADER_SIZE);
+            int count = in.getInt();
+
+            // string table
+            String[] strings = new String[in.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[in.getInt()];
+                in.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            // columns
+            int[] IDs = readInts(in, count);
+            int[] namesFirst = readInts(in, count);
+            int[] namesMiddles = readInts(in, count);
+            int[] namesLast = readInts(in, count);
+            byte[] isMales = readBytes(in, count);
+            short[] birthYears = readShorts(in, count);
+            byte[] birthMonths = readBytes(in, count);
+            byte[] birthDays = readBytes(in, count);
+            byte[] isLivings = readBytes(in, count);
+            short[] deathYears = readShorts(in, count);
+            byte[] deathMonths = readBytes(in, count);
+            byte[] deathDays = readBytes(in, count);
+            int[] notes = readInts(in, count);
+            int[] motherIDs = readInts(in, count);
+            int[] fatherIDs = readInts(in, count);
+
+            // children
+            int[] offsets = readInts(in, count + 1);
+            int[] children = readInts(in, offsets[count]);
+
+            ArrayList<Person> people = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Person person = new Person(IDs[i],
+                    strings[namesFirst[i]], strings[namesMiddles[i]], strings[namesLast[i]],
+                    byteToBoolean(isMales[i]),
+                    intToOptional(birthYears[i]), intToOptional(birthMonths[i]), intToOptional(birthDays[i]),
+                    byteToBoolean(isLivings[i]),
+                    intToOptional(deathYears[i]), intToOptional(deathMonths[i]), intToOptional(deathDays[i]),
+                    strings[notes[i]], intToOptional(motherIDs[i]), intToOptional(fatherIDs[i]));
+                people.add(person);
+            }
+            childIndex.load(IDs, offsets, children);
+            return people;
+
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new DataFormatException("Snapshot of people is truncated or corrupt");
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, Collection<Person> people, ToIntFunction<Person> column) throws IOException {
+        for (Person person: people) {
+            out.writeInt(column.applyAsInt(person));
+        }
+    }
+
+    private static void writeShorts(DataOutputStream out, Collection<Person> people, ToIntFunction<Person> column) throws IOException {
+        for (Person person: people) {
+            out.writeShort(column.applyAsInt(person));
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, Collection<Person> people, ToIntFunction<Person> column) throws IOException {
+        for (Person person: people) {
+            out.writeByte(column.applyAsInt(person));
+        }
+    }
+
+    private static int[] readInts(ByteBuffer in, int count) {
+        int[] values = new int[count];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + count * Integer.BYTES);
+        return values;
+    }
+
+    private static short[] readShorts(ByteBuffer in, int count) {
+        short[] values = new short[count];
+        in.asShortBuffer().get(values);
+        in.position(in.position() + count * Short.BYTES);
+        return values;
+    }
+
+    private static byte[] readBytes(ByteBuffer in, int count) {
+        byte[] values = new byte[count];
+        in.get(values);
+        return values;
+    }
+
+    private static int optionalToInt(Integer value) {
+        return value == null ? 0 : value;
+    }
+
+    private static Integer intToOptional(int value) {
+        return value == 0 ? null : value;
+    }
+
+    private static int booleanToByte(Boolean value) {
+        return value == null ? -1 : value ? 1 : 0;
+    }
+
+    private static Boolean byteToBoolean(byte value) {
+        return value == -1 ? null : value == 1;
+    }
+}
@@ -0,0 +1,163 @@
+package core;
+
+import java.time.LocalDate;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Everyone stored, in a bucket for each day of the year they have their
+ * birthday. The buckets are in calendar order including the 29th of February
+ * so the order of days until everyone's birthday is just the buckets starting
+ * at today's and wrapping round. Nothing is sorted and it stays correct as
+ * the date changes.
+ *
+ * Unknown birth months and days count as the 1st like `Util.daysUntilBirthday`.
+ * In years that aren't leap years, birthdays on the 29th of February are on
+ * the 28th so come straight after everyone else born on the 28th. Within a
+ * day, people are in order of ID.
+ */
+class BirthdayIndex extends AbstractCollection<Person> {
+
+    // the number of days in a leap year before the start of each month
+    private static final int[] DAYS_BEFORE_MONTH = {0, 31, 60, 91, 121, 152, 182, 213, 244, 274, 305, 335};
+
+    private final ArrayList<ArrayList<Person>> buckets;
+    private int size;
+
+    BirthdayIndex() {
+        this.buckets = new ArrayList<>(366);
+        for (int i = 0; i < 366; i++) {
+            this.buckets.add(new ArrayList<>());
+        }
+        this.size = 0;
+    }
+
+    /**
+     * Return the index of the bucket for the given birth month and day which
+     * may be unknown
+     */
+    private static int bucket(Integer birthMonth, Integer birthDay) {
+        int month = birthMonth == null ? 1 : birthMonth;
+        int day = birthDay == null ? 1 : birthDay;
+        return DAYS_BEFORE_MONTH[month - 1] + day - 1;
+    }
+
+    private static int bucket(Person person) {
+        return bucket(person.getBirthMonth(), person.getBirthDay());
+    }
+
+    /**
+     * Return the index in the given bucket that the person with the given ID
+     * is at, or where they would go if they aren't in it
+     */
+    private static int indexOf(ArrayList<Person> bucket, int ID) {
+        int low = 0;
+        int high = bucket.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (bucket.get(middle).getID() < ID) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Add the given person under their current birth month and day
+     */
+    public boolean add(Person person) {
+        ArrayList<Person> bucket = this.buckets.get(bucket(person));
+        int index = indexOf(bucket, person.getID());
+        if (index < bucket.size() && bucket.get(index) == person) {
+            return false;
+        }
+        bucket.add(index, person);
+        this.size++;
+        return true;
+    }
+
+    /**
+     * Remove the given person, who must still have the birth month and day
+     * they were added with
+     */
+    void remove(Person person) {
+        ArrayList<Person> bucket = this.buckets.get(bucket(person));
+        int index = indexOf(bucket, person.getID());
+        if (index < bucket.size() && bucket.get(index) == person) {
+            bucket.remove(index);
+            this.size--;
+        }
+    }
+
+    /**
+     * Return the people with the next birthdays from today, skipping the
+     * first `offset` and returning at most `limit`. Whole buckets are skipped
+     * at once so this only looks at the people returned.
+     */
+    ArrayList<Person> next(int offset, int limit) {
+        LocalDate today = LocalDate.now();
+        int start = bucket(today.getMonthValue(), today.getDayOfMonth());
+
+        ArrayList<Person> people = new ArrayList<>(Math.min(limit, this.size));
+        for (int i = 0; i < 366 && people.size() < limit; i++) {
+            ArrayList<Person> bucket = this.buckets.get((start + i) % 366);
+            if (offset >= bucket.size()) {
+                offset -= bucket.size();
+                continue;
+            }
+            int end = Math.min(bucket.size(), offset + limit - people.size());
+            people.addAll(bucket.subList(offset, end));
+            offset = 0;
+        }
+        return people;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Iterate through everyone in order of the number of days until their
+     * birthday from today
+     */
+    public Iterator<Person> iterator() {
+        LocalDate today = LocalDate.now();
+        int start = bucket(today.getMonthValue(), today.getDayOfMonth());
+
+        return new Iterator<Person>() {
+            private int bucketsVisited = 0;
+            private int index = 0;
+
+            /**
+             * Move on to the next non-empty bucket if this one is finished.
+             * Return false if there are no more.
+             */
+            private boolean advance() {
+                while (this.bucketsVisited < 366) {
+                    ArrayList<Person> bucket = buckets.get((start + this.bucketsVisited) % 366);
+                    if (this.index < bucket.size()) {
+                        return true;
+                    }
+                    this.bucketsVisited++;
+                    this.index = 0;
+                }
+                return false;
+            }
+
+            public boolean hasNext() {
+                return this.advance();
+            }
+
+            public Person next() {
+                if (!this.advance()) {
+                    throw new NoSuchElementException();
+                }
+                return buckets.get((start + this.bucketsVisited) % 366).get(this.index++);
+            }
+        };
+    }
+}
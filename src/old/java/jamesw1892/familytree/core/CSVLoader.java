@@ -0,0 +1,175 @@
+package core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.DataFormatException;
+
+/**
+ * Loads people from the file by splitting it into chunks that each start at
+ * the beginning of a line and end at the end of a line. The chunks are read
+ * and parsed in parallel so loading a large file scales with the number of
+ * cores. The file isn't memory-mapped since a mapping stays until it is
+ * garbage collected and on Windows the file can't be replaced until then,
+ * which saving does.
+ */
+class CSVLoader {
+
+    // Don't split smaller than this since parsing in parallel isn't worth it
+    private static final long MIN_CHUNK_BYTES = 1 << 20;
+
+    // How much of its chunk each task reads from the file at a time
+    private static final int READ_BYTES = 64 * 1024;
+
+    /**
+     * Parses the lines in a chunk of the file
+     */
+    private static class Chunk extends RecursiveTask<ArrayList<Person>> {
+        private static final long serialVersionUID = 1L;
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        private DataFormatException formatError;
+        private IOException ioError;
+
+        Chunk(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected ArrayList<Person> compute() {
+            ArrayList<Person> people = new ArrayList<>();
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(READ_BYTES);
+                buffer.flip();
+                long position = this.start;
+                byte[] line = new byte[256];
+                int length = 0;
+
+                while (true) {
+
+                    // read the next part of the chunk once the last is used up
+                    if (!buffer.hasRemaining() && position < this.end) {
+                        buffer.clear();
+                        buffer.limit((int) Math.min(READ_BYTES, this.end - position));
+                        int read = this.channel.read(buffer, position);
+                        position = read <= 0 ? this.end : position + read;
+                        buffer.flip();
+                    }
+
+                    boolean finished = !buffer.hasRemaining();
+                    byte b = finished ? (byte) '\n' : buffer.get();
+
+                    if (b == '\n') {
+                        // ignore blank lines and carriage returns before the newline
+                        if (length > 0 && line[length - 1] == '\r') {
+                            length--;
+                        }
+                        if (length > 0) {
+                            people.add(Person.fromFile(new String(line, 0, length, StandardCharsets.UTF_8)));
+                        }
+                        length = 0;
+                        if (finished) {
+                            break;
+                        }
+                    } else {
+                        if (length == line.length) {
+                            byte[] bigger = new byte[line.length * 2];
+                            System.arraycopy(line, 0, bigger, 0, length);
+                            line = bigger;
+                        }
+                        line[length++] = b;
+                    }
+                }
+            } catch (DataFormatException e) {
+                this.formatError = e;
+            } catch (NumberFormatException e) {
+                this.formatError = new DataFormatException("Invalid number: " + e.getMessage());
+            } catch (IOException e) {
+                this.ioError = e;
+            }
+            return people;
+        }
+    }
+
+    /**
+     * Return everyone in the file at the given path in the order they appear,
+     * skipping the headings on the first line. Return null if there is no file.
+     */
+    static ArrayList<Person> load(Path path) throws IOException, DataFormatException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        try {
+            long size = channel.size();
+            long start = endOfLine(channel, 0, size);
+
+            // decide how big each chunk should be so each core gets a few
+            int parallelism = ForkJoinPool.commonPool().getParallelism();
+            long chunkBytes = (size - start) / (parallelism * 4L);
+            chunkBytes = Math.max(MIN_CHUNK_BYTES, chunkBytes);
+
+            // split into chunks, moving each boundary to the end of its line
+            ArrayList<Chunk> chunks = new ArrayList<>();
+            while (start < size) {
+                long end = Math.min(size, start + chunkBytes);
+                end = endOfLine(channel, end, size);
+                chunks.add(new Chunk(channel, start, end));
+                start = end;
+            }
+
+            // parse all chunks in parallel then join them in order
+            for (Chunk chunk: chunks) {
+                chunk.fork();
+            }
+            ArrayList<Person> people = new ArrayList<>();
+            for (Chunk chunk: chunks) {
+                people.addAll(chunk.join());
+                if (chunk.formatError != null) {
+                    throw chunk.formatError;
+                }
+                if (chunk.ioError != null) {
+                    throw chunk.ioError;
+                }
+            }
+            return people;
+
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Return the position just after the first newline at or after the given
+     * position or the size of the file if there isn't one
+     */
+    private static long endOfLine(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+}
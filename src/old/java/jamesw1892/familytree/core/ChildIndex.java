@@ -0,0 +1,250 @@
+package core;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * The IDs of everyone's children, shared by everyone in a store rather than
+ * each person having their own set. All children are kept in a single array
+ * of ints where each person's children are in a contiguous segment, and each
+ * person has the start, number and capacity of their segment (like a
+ * compressed sparse row adjacency). Childless people take no space in the
+ * array and nothing is boxed.
+ *
+ * When reading, everyone's segments are packed exactly. If a person later
+ * gains more children than their segment has room for, it is moved to the
+ * end of the array with double the room. The space it leaves behind is
+ * reclaimed by packing everything again once it is more than half the array.
+ *
+ * Children are a set, so adding a child twice has no effect. Removing a child
+ * swaps the last child into its place so the order of children may change.
+ */
+class ChildIndex {
+    private int[] start;
+    private int[] count;
+    private int[] capacity;
+    private int[] children;
+    private int used;
+    private int wasted;
+
+    ChildIndex() {
+        this.start = new int[16];
+        this.count = new int[16];
+        this.capacity = new int[16];
+        this.children = new int[16];
+        this.used = 0;
+        this.wasted = 0;
+    }
+
+    /**
+     * Return the number of children of the person with the given ID
+     */
+    int count(int ID) {
+        return ID < this.count.length ? this.count[ID] : 0;
+    }
+
+    /**
+     * Return the ID of the child at the given index, between 0 and `count`,
+     * of the person with the given ID
+     */
+    int get(int ID, int index) {
+        if (index < 0 || index >= this.count(ID)) {
+            throw new IndexOutOfBoundsException("Person " + ID + " does not have a child at index " + index);
+        }
+        return this.children[this.start[ID] + index];
+    }
+
+    /**
+     * Return a copy of the IDs of the children of the person with the given ID
+     */
+    int[] toArray(int ID) {
+        int count = this.count(ID);
+        if (count == 0) {
+            return new int[0];
+        }
+        return Arrays.copyOfRange(this.children, this.start[ID], this.start[ID] + count);
+    }
+
+    /**
+     * Return whether the given child is a child of the person with the given ID
+     */
+    boolean contains(int ID, int childID) {
+        return this.indexOf(ID, childID) != -1;
+    }
+
+    private int indexOf(int ID, int childID) {
+        int count = this.count(ID);
+        for (int i = 0; i < count; i++) {
+            if (this.children[this.start[ID] + i] == childID) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Add the given child to the children of the person with the given ID
+     * if they aren't already
+     */
+    void add(int ID, int childID) {
+        if (this.contains(ID, childID)) {
+            return;
+        }
+        this.ensureIDs(ID);
+
+        // move to the end with more room if the segment is full
+        if (this.count[ID] == this.capacity[ID]) {
+            int newCapacity = Math.max(2, this.capacity[ID] * 2);
+            this.ensureChildren(this.used + newCapacity);
+            System.arraycopy(this.children, this.start[ID], this.children, this.used, this.count[ID]);
+            this.wasted += this.capacity[ID];
+            this.start[ID] = this.used;
+            this.capacity[ID] = newCapacity;
+            this.used += newCapacity;
+        }
+
+        this.children[this.start[ID] + this.count[ID]] = childID;
+        this.count[ID]++;
+
+        if (this.wasted > this.used / 2) {
+            this.pack();
+        }
+    }
+
+    /**
+     * Remove the given child from the children of the person with the given
+     * ID if they are one
+     */
+    void remove(int ID, int childID) {
+        int index = this.indexOf(ID, childID);
+        if (index == -1) {
+            return;
+        }
+        int last = this.start[ID] + this.count[ID] - 1;
+        this.children[this.start[ID] + index] = this.children[last];
+        this.count[ID]--;
+    }
+
+    /**
+     * Remove all children of the person with the given ID
+     */
+    void clear(int ID) {
+        if (ID < this.count.length) {
+            this.count[ID] = 0;
+        }
+    }
+
+    /**
+     * Replace all children with those of the given people, found from their
+     * parents in a single pass and packed exactly. Children whose parent is
+     * not one of the given people are left out.
+     */
+    void build(Collection<Person> people) {
+        int maxID = 0;
+        for (Person person: people) {
+            maxID = Math.max(maxID, person.getID());
+        }
+        boolean[] exists = new boolean[maxID + 1];
+        for (Person person: people) {
+            exists[person.getID()] = true;
+        }
+
+        int[] count = new int[maxID + 1];
+        for (Person person: people) {
+            if (isParent(person.getMotherID(), exists)) {
+                count[person.getMotherID()]++;
+            }
+            if (isParent(person.getFatherID(), exists)) {
+                count[person.getFatherID()]++;
+            }
+        }
+
+        this.start = new int[maxID + 1];
+        this.count = new int[maxID + 1];
+        int total = 0;
+        for (int ID = 0; ID <= maxID; ID++) {
+            this.start[ID] = total;
+            total += count[ID];
+        }
+        this.capacity = count;
+        this.children = new int[Math.max(16, total)];
+        this.used = total;
+        this.wasted = 0;
+
+        for (Person person: people) {
+            if (isParent(person.getMotherID(), exists)) {
+                this.append(person.getMotherID(), person.getID());
+            }
+            if (isParent(person.getFatherID(), exists)) {
+                this.append(person.getFatherID(), person.getID());
+            }
+        }
+    }
+
+    /**
+     * Return whether the given parent ID is someone who exists
+     */
+    private static boolean isParent(Integer parentID, boolean[] exists) {
+        return parentID != null && parentID < exists.length && exists[parentID];
+    }
+
+    private void append(int ID, int childID) {
+        this.children[this.start[ID] + this.count[ID]] = childID;
+        this.count[ID]++;
+    }
+
+    /**
+     * Replace all children with the given ones where the children of the
+     * person with ID `IDs[i]` are `children[offsets[i]]` up to but not
+     * including `children[offsets[i + 1]]`
+     */
+    void load(int[] IDs, int[] offsets, int[] children) {
+        int maxID = 0;
+        for (int ID: IDs) {
+            maxID = Math.max(maxID, ID);
+        }
+        this.start = new int[maxID + 1];
+        this.count = new int[maxID + 1];
+        this.capacity = new int[maxID + 1];
+        for (int i = 0; i < IDs.length; i++) {
+            this.start[IDs[i]] = offsets[i];
+            this.count[IDs[i]] = offsets[i + 1] - offsets[i];
+            this.capacity[IDs[i]] = offsets[i + 1] - offsets[i];
+        }
+        this.children = children.length < 16 ? Arrays.copyOf(children, 16) : children;
+        this.used = offsets[IDs.length];
+        this.wasted = 0;
+    }
+
+    /**
+     * Move every segment next to each other so there is no wasted space
+     */
+    private void pack() {
+        int[] packed = new int[Math.max(16, this.used - this.wasted)];
+        int total = 0;
+        for (int ID = 0; ID < this.count.length; ID++) {
+            System.arraycopy(this.children, this.start[ID], packed, total, this.count[ID]);
+            this.start[ID] = total;
+            this.capacity[ID] = this.count[ID];
+            total += this.count[ID];
+        }
+        this.children = packed;
+        this.used = total;
+        this.wasted = 0;
+    }
+
+    private void ensureIDs(int ID) {
+        if (ID >= this.count.length) {
+            int length = Math.max(ID + 1, this.count.length * 2);
+            this.start = Arrays.copyOf(this.start, length);
+            this.count = Arrays.copyOf(this.count, length);
+            this.capacity = Arrays.copyOf(this.capacity, length);
+        }
+    }
+
+    private void ensureChildren(int length) {
+        if (length > this.children.length) {
+            this.children = Arrays.copyOf(this.children, Math.max(length, this.children.length * 2));
+        }
+    }
+}
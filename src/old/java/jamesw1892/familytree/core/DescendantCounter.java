@@ -0,0 +1,127 @@
+package core;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Counts the distinct descendants of people. When relatives have children
+ * together, the same person descends from someone in more than one way so
+ * adding up each child's descendants would count them more than once.
+ * Instead everyone reachable going down is marked in a bitset so each is
+ * only counted once.
+ *
+ * Counting everyone at the top of the tree is split across the common
+ * fork/join pool with a few people each. Tasks take a bitset from those
+ * shared by the count, only clear the bits they set and give it back, so
+ * there are only about as many bitsets as threads and nothing proportional
+ * to the size of the tree is allocated per person counted. The bitsets are
+ * dropped once the count is done rather than kept by the pool's threads.
+ */
+class DescendantCounter extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    // Count this many people in a single task rather than splitting further
+    private static final int PEOPLE_PER_TASK = 8;
+
+    private final PersonIndex people;
+    private final int[] IDs;
+    private final int[] counts;
+    private final int start;
+    private final int end;
+    private final int maxID;
+    private final ConcurrentLinkedQueue<Visited> spare;
+
+    private DescendantCounter(PersonIndex people, int[] IDs, int[] counts, int start, int end, int maxID, ConcurrentLinkedQueue<Visited> spare) {
+        this.people = people;
+        this.IDs = IDs;
+        this.counts = counts;
+        this.start = start;
+        this.end = end;
+        this.maxID = maxID;
+        this.spare = spare;
+    }
+
+    /**
+     * The people visited so far while counting and a queue of them, which is
+     * also how the bits are cleared afterwards
+     */
+    static class Visited {
+        private long[] bits;
+        private int[] queue;
+
+        Visited(int maxID) {
+            this.bits = new long[(maxID >> 6) + 1];
+            this.queue = new int[16];
+        }
+    }
+
+    /**
+     * Return the number of distinct descendants of the person with the given
+     * ID using the given bitset, which must be clear and is left clear
+     */
+    static int count(PersonIndex people, int ID, Visited visited) {
+        long[] bits = visited.bits;
+        int[] queue = visited.queue;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = ID;
+        bits[ID >> 6] |= 1L << ID;
+
+        // go down in breadth first order, only queueing each person once
+        while (head < tail) {
+            Person person = people.get(queue[head++]);
+            int numChildren = person.getNumChildren();
+            for (int i = 0; i < numChildren; i++) {
+                int childID = person.getChildID(i);
+                long bit = 1L << childID;
+                if ((bits[childID >> 6] & bit) == 0) {
+                    bits[childID >> 6] |= bit;
+                    if (tail == queue.length) {
+                        int[] bigger = new int[queue.length * 2];
+                        System.arraycopy(queue, 0, bigger, 0, tail);
+                        queue = bigger;
+                    }
+                    queue[tail++] = childID;
+                }
+            }
+        }
+
+        // clear only the bits that were set and keep the bigger queue
+        for (int i = 0; i < tail; i++) {
+            bits[queue[i] >> 6] = 0;
+        }
+        visited.queue = queue;
+
+        // don't count themself
+        return tail - 1;
+    }
+
+    /**
+     * Return the number of distinct descendants of each of the people with
+     * the given IDs, in the same order, counting them in parallel. IDs must
+     * be no more than `maxID`.
+     */
+    static int[] countAll(PersonIndex people, int[] IDs, int maxID) {
+        int[] counts = new int[IDs.length];
+        new DescendantCounter(people, IDs, counts, 0, IDs.length, maxID, new ConcurrentLinkedQueue<>()).invoke();
+        return counts;
+    }
+
+    protected void compute() {
+        if (this.end - this.start > PEOPLE_PER_TASK) {
+            int middle = (this.start + this.end) >>> 1;
+            invokeAll(new DescendantCounter(this.people, this.IDs, this.counts, this.start, middle, this.maxID, this.spare),
+                      new DescendantCounter(this.people, this.IDs, this.counts, middle, this.end, this.maxID, this.spare));
+            return;
+        }
+
+        Visited visited = this.spare.poll();
+        if (visited == null) {
+            visited = new Visited(this.maxID);
+        }
+        for (int i = this.start; i < this.end; i++) {
+            this.counts[i] = count(this.people, this.IDs[i], visited);
+        }
+        this.spare.add(visited);
+    }
+}
@@ -0,0 +1,172 @@
+package core;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The number of distinct descendants of everyone at the top of the tree,
+ * those with no known parents, indexed by ID, along with a tournament tree
+ * over the IDs so the one with the most descendants is always known. Anyone
+ * with a parent has fewer descendants than that parent so the person with
+ * the most descendants overall is always at the top of the tree.
+ *
+ * Each leaf of the tournament tree is an ID and each node above holds
+ * whichever of its two children has more descendants, favouring the lower
+ * ID if they have the same. The root is then the overall winner and
+ * changing someone's count only replays the matches on the path from their
+ * leaf to the root.
+ *
+ * When a link changes, the people at the top above it are marked as needing
+ * recounting rather than being recounted straight away, so many changes
+ * only cost one recount. The counting is done by `PersonStore` since it
+ * knows who is related to who.
+ */
+class DescendantCounts {
+    private int[] counts;
+    private boolean[] present;
+    private final BitSet needsCounting;
+
+    // tree[1] is the root, the children of tree[i] are tree[2i] and
+    // tree[2i + 1] and the leaf for ID is tree[leaves + ID]. Each holds the
+    // winning ID or 0 if there is no-one below it since IDs start from 1.
+    private int[] tree;
+    private int leaves;
+
+    DescendantCounts() {
+        this.leaves = 16;
+        this.counts = new int[this.leaves];
+        this.present = new boolean[this.leaves];
+        this.tree = new int[2 * this.leaves];
+        this.needsCounting = new BitSet();
+    }
+
+    /**
+     * Return the number of descendants of the person with the given ID when
+     * they were last counted, or 0 if they aren't at the top of the tree
+     */
+    int get(int ID) {
+        return ID < this.leaves ? this.counts[ID] : 0;
+    }
+
+    /**
+     * Return whether the person with the given ID is at the top of the tree
+     * and their count is up to date
+     */
+    boolean isCounted(int ID) {
+        return ID < this.leaves && this.present[ID] && !this.needsCounting.get(ID);
+    }
+
+    /**
+     * Return the ID of the person with the most descendants, the lowest ID if
+     * several have the most, or 0 if there is no-one. Only correct if no-one
+     * needs counting.
+     */
+    int best() {
+        return this.tree[1];
+    }
+
+    /**
+     * Set the number of descendants of the person with the given ID, adding
+     * them if they aren't already
+     */
+    void set(int ID, int count) {
+        this.ensureLeaves(ID);
+        this.counts[ID] = count;
+        this.present[ID] = true;
+        this.needsCounting.clear(ID);
+        this.replay(ID);
+    }
+
+    /**
+     * Mark the person with the given ID, who must be at the top of the tree,
+     * as needing their descendants counting again
+     */
+    void markNeedsCounting(int ID) {
+        this.needsCounting.set(ID);
+    }
+
+    /**
+     * Return the IDs of everyone who needs counting and forget them
+     */
+    int[] takeNeedsCounting() {
+        int[] IDs = this.needsCounting.stream().toArray();
+        this.needsCounting.clear();
+        return IDs;
+    }
+
+    /**
+     * Remove the person with the given ID, for example once they have a
+     * parent so are no longer at the top of the tree
+     */
+    void remove(int ID) {
+        this.needsCounting.clear(ID);
+        if (ID < this.leaves && this.present[ID]) {
+            this.counts[ID] = 0;
+            this.present[ID] = false;
+            this.replay(ID);
+        }
+    }
+
+    /**
+     * Replace all counts with the given ones, indexed by ID, for everyone
+     * marked as present and play every match once
+     */
+    void setAll(int[] counts, boolean[] present) {
+        this.needsCounting.clear();
+        this.leaves = 16;
+        while (this.leaves < counts.length) {
+            this.leaves *= 2;
+        }
+        this.counts = Arrays.copyOf(counts, this.leaves);
+        this.present = Arrays.copyOf(present, this.leaves);
+        this.rebuild();
+    }
+
+    /**
+     * Return whichever of the two IDs has more descendants, the first if
+     * they have the same since it is always the lower ID
+     */
+    private int winner(int ID1, int ID2) {
+        if (ID1 == 0) {
+            return ID2;
+        }
+        if (ID2 == 0) {
+            return ID1;
+        }
+        return this.counts[ID1] >= this.counts[ID2] ? ID1 : ID2;
+    }
+
+    /**
+     * Replay the matches from the leaf of the given ID up to the root
+     */
+    private void replay(int ID) {
+        int node = this.leaves + ID;
+        this.tree[node] = this.present[ID] ? ID : 0;
+        for (node /= 2; node >= 1; node /= 2) {
+            this.tree[node] = this.winner(this.tree[2 * node], this.tree[2 * node + 1]);
+        }
+    }
+
+    private void rebuild() {
+        this.tree = new int[2 * this.leaves];
+        for (int ID = 0; ID < this.leaves; ID++) {
+            this.tree[this.leaves + ID] = this.present[ID] ? ID : 0;
+        }
+        for (int node = this.leaves - 1; node >= 1; node--) {
+            this.tree[node] = this.winner(this.tree[2 * node], this.tree[2 * node + 1]);
+        }
+    }
+
+    private void ensureLeaves(int ID) {
+        if (ID >= this.leaves) {
+            int leaves = this.leaves;
+            while (leaves <= ID) {
+                leaves *= 2;
+            }
+            this.leaves = leaves;
+            this.counts = Arrays.copyOf(this.counts, leaves);
+            this.present = Arrays.copyOf(this.present, leaves);
+            this.rebuild();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * Splits everyone into separate family groups, where two people are in the
+ * same group if there is any chain of parent and child links between them,
+ * with a union-find over IDs. Each group's root is recorded for everyone
+ * with the path to it halved whenever it is followed, and the smaller group
+ * always goes under the larger when two are joined, so finding someone's
+ * group takes almost constant time.
+ *
+ * Linking someone to a parent joins their groups straight away. Removing a
+ * link or a person may split a group, which a union-find can't undo, so the
+ * groups are then rebuilt from everyone's links the next time they are
+ * needed.
+ *
+ * Each group's members are also kept in a circular list through the IDs so
+ * the people in a group are found without looking at everyone, and each
+ * group is known by the lowest ID in it so it doesn't change when groups
+ * are joined under a different root.
+ */
+class FamilyGroups {
+    private final PersonStore personStore;
+    private int[] roots;
+    private int[] sizes;
+    private int[] lowestIDs;
+    private int[] next;
+    private boolean needsRebuild;
+
+    FamilyGroups(PersonStore personStore) {
+        this.personStore = personStore;
+        this.roots = new int[0];
+        this.sizes = new int[0];
+        this.lowestIDs = new int[0];
+        this.next = new int[0];
+        this.needsRebuild = true;
+    }
+
+    /**
+     * Add the given person who has just been stored in a group of their own
+     */
+    void add(Person person) {
+        if (!this.needsRebuild) {
+            this.ensureSize(person.getID());
+            this.makeGroup(person.getID());
+        }
+    }
+
+    /**
+     * Join the groups of the given person and their given new parent
+     */
+    void join(Person person, Person parent) {
+        if (this.needsRebuild) {
+            return;
+        }
+        int root1 = this.root(person.getID());
+        int root2 = this.root(parent.getID());
+        if (root1 == root2) {
+            return;
+        }
+        if (this.sizes[root1] < this.sizes[root2]) {
+            int swap = root1;
+            root1 = root2;
+            root2 = swap;
+        }
+        this.roots[root2] = root1;
+        this.sizes[root1] += this.sizes[root2];
+        this.lowestIDs[root1] = Math.min(this.lowestIDs[root1], this.lowestIDs[root2]);
+
+        // splice the two circular lists of members into one
+        int swap = this.next[root1];
+        this.next[root1] = this.next[root2];
+        this.next[root2] = swap;
+    }
+
+    /**
+     * Mark the groups as needing rebuilding since a link or person has been
+     * removed and a group may have split
+     */
+    void split() {
+        this.needsRebuild = true;
+    }
+
+    /**
+     * Return the lowest ID in the given person's group
+     */
+    int groupID(Person person) {
+        this.rebuildIfNeeded();
+        return this.lowestIDs[this.root(person.getID())];
+    }
+
+    /**
+     * Return how many people are in the given person's group
+     */
+    int size(Person person) {
+        this.rebuildIfNeeded();
+        return this.sizes[this.root(person.getID())];
+    }
+
+    /**
+     * Return the IDs of everyone in the same group as the given person in
+     * order of ID
+     */
+    int[] members(Person person) {
+        this.rebuildIfNeeded();
+        int root = this.root(person.getID());
+        int[] IDs = new int[this.sizes[root]];
+        int ID = root;
+        for (int i = 0; i < IDs.length; i++) {
+            IDs[i] = ID;
+            ID = this.next[ID];
+        }
+        Arrays.sort(IDs);
+        return IDs;
+    }
+
+    /**
+     * Return the lowest ID of each group and its size, largest first then in
+     * order of lowest ID, as pairs of lowest ID then size
+     */
+    int[][] groups() {
+        this.rebuildIfNeeded();
+        int numGroups = 0;
+        for (Person person: this.personStore.people()) {
+            if (this.roots[person.getID()] == person.getID()) {
+                numGroups++;
+            }
+        }
+        int[][] groups = new int[numGroups][];
+        int i = 0;
+        for (Person person: this.personStore.people()) {
+            int ID = person.getID();
+            if (this.roots[ID] == ID) {
+                groups[i++] = new int[] {this.lowestIDs[ID], this.sizes[ID]};
+            }
+        }
+        Arrays.sort(groups, (group1, group2) -> group1[1] != group2[1] ? Integer.compare(group2[1], group1[1]) : Integer.compare(group1[0], group2[0]));
+        return groups;
+    }
+
+    /**
+     * Return the root of the group of the given ID, halving the path to it
+     */
+    private int root(int ID) {
+        while (this.roots[ID] != ID) {
+            this.roots[ID] = this.roots[this.roots[ID]];
+            ID = this.roots[ID];
+        }
+        return ID;
+    }
+
+    private void makeGroup(int ID) {
+        this.roots[ID] = ID;
+        this.sizes[ID] = 1;
+        this.lowestIDs[ID] = ID;
+        this.next[ID] = ID;
+    }
+
+    private void rebuildIfNeeded() {
+        if (!this.needsRebuild) {
+            return;
+        }
+        this.needsRebuild = false;
+        int bound = this.personStore.getIDBound();
+        this.roots = new int[bound];
+        this.sizes = new int[bound];
+        this.lowestIDs = new int[bound];
+        this.next = new int[bound];
+        for (Person person: this.personStore.people()) {
+            this.makeGroup(person.getID());
+        }
+        for (Person person: this.personStore.people()) {
+            Person mother = this.personStore.lookupMother(person);
+            if (mother != null) {
+                this.join(person, mother);
+            }
+            Person father = this.personStore.lookupFather(person);
+            if (father != null) {
+                this.join(person, father);
+            }
+        }
+    }
+
+    private void ensureSize(int ID) {
+        if (ID >= this.roots.length) {
+            int size = Math.max(ID + 1, this.roots.length * 2);
+            this.roots = Arrays.copyOf(this.roots, size);
+            this.sizes = Arrays.copyOf(this.sizes, size);
+            this.lowestIDs = Arrays.copyOf(this.lowestIDs, size);
+            this.next = Arrays.copyOf(this.next, size);
+        }
+    }
+}
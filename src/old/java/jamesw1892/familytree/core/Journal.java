@@ -0,0 +1,136 @@
+package core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Append-only log of the changes made to people since the file of people was
+ * last written. Each change is a single line so saving an edit only costs the
+ * size of that change rather than rewriting everyone.
+ *
+ * Records are one of:
+ * - `A,<person in file format>` when a person is added
+ * - `E,<person in file format>` when a person is edited
+ * - `L,<ID>,<mother ID>,<father ID>` when a person is linked to their parents
+ * - `D,<ID>` when a person is deleted
+ *
+ * Every record sets state rather than describing a difference so replaying a
+ * record that has already been applied has no effect. This means a crash
+ * between writing the file and truncating the journal loses nothing.
+ */
+class Journal {
+    static final String ADD = "A";
+    static final String EDIT = "E";
+    static final String LINK = "L";
+    static final String DELETE = "D";
+
+    private FileChannel channel;
+    private int numRecords;
+
+    /**
+     * Open the journal at the given path for appending, creating it if it
+     * doesn't exist. Records already in it from before count towards it
+     * being long enough to compact.
+     * @param path
+     * @throws IOException
+     */
+    Journal(Path path) throws IOException {
+        this.numRecords = readRecords(path).size();
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Return the path of the journal kept alongside the given file of people
+     */
+    static Path pathFor(String filename) {
+        return Path.of(filename + ".journal");
+    }
+
+    /**
+     * Return all complete records in the journal at the given path in the
+     * order they were appended. If the last record was only partly written
+     * (so doesn't end in a newline) it is ignored. If there is no journal
+     * there are no records.
+     */
+    static ArrayList<String> readRecords(Path path) throws IOException {
+        ArrayList<String> records = new ArrayList<>();
+        BufferedReader br;
+        try {
+            br = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return records;
+        }
+
+        StringBuilder record = new StringBuilder();
+        int chr;
+        while ((chr = br.read()) != -1) {
+            if (chr == '\n') {
+                if (record.length() > 0) {
+                    records.add(record.toString());
+                }
+                record.setLength(0);
+            } else if (chr != '\r') {
+                record.append((char) chr);
+            }
+        }
+
+        br.close();
+        return records;
+    }
+
+    /**
+     * Append the record with the given type and contents. It is handed to
+     * the operating system straight away but is not guaranteed to be on
+     * disk until `sync` is called.
+     */
+    void append(String type, String contents) throws IOException {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(type + "," + contents + "\n");
+        while (bytes.hasRemaining()) {
+            this.channel.write(bytes);
+        }
+        this.numRecords++;
+    }
+
+    /**
+     * Force all appended records to disk
+     */
+    void sync() throws IOException {
+        this.channel.force(false);
+    }
+
+    /**
+     * Return the number of records in the journal, including any it had when
+     * opened, since it was last truncated
+     */
+    int getNumRecords() {
+        return this.numRecords;
+    }
+
+    /**
+     * Remove all records, called once they have all been written to the file
+     * and it has been forced to disk, otherwise the empty journal could reach
+     * the disk first and a crash would lose the changes
+     */
+    void truncate() throws IOException {
+        this.channel.truncate(0);
+        this.channel.force(true);
+        this.numRecords = 0;
+    }
+
+    /**
+     * Delete the journal at the given path if there is one, called when the
+     * file has been written but no journal is open
+     */
+    static void delete(Path path) throws IOException {
+        Files.deleteIfExists(path);
+    }
+}
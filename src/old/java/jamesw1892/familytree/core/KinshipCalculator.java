@@ -0,0 +1,319 @@
+package core;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Works out kinship coefficients, the chance that a gene picked at random
+ * from one person is identical by descent to the same gene picked at random
+ * from another, by the recursive method:
+ *
+ * - someone with themself is half of one plus the kinship of their parents
+ * - otherwise it is half the sum of the kinship of each parent of whichever
+ *   of the two is further down the tree with the other
+ * - and nothing through an unknown parent
+ *
+ * Going up from whoever is further down means neither is ever an ancestor of
+ * the other so it always ends. How far down the tree each person is, the
+ * most generations below anyone at the top, is worked out once for everyone
+ * and kept until a link changes. Anyone recorded as their own ancestor, and
+ * anyone below them, is treated as having no known parents.
+ *
+ * The same pairs of ancestors come up again and again so results are kept
+ * in a memo keyed by the pair of IDs, lower first. It is a fixed size hash
+ * table that overwrites old results when it is full so its memory is
+ * bounded however big the tree is. The recursion is done with an explicit
+ * stack so it can't overflow the call stack on very deep trees.
+ *
+ * Working out everyone against everyone else is split across the common
+ * fork/join pool a few rows at a time, each thread with its own memo.
+ */
+class KinshipCalculator {
+
+    // The number of results each memo can hold, 16 bytes each
+    private static final int MEMO_CAPACITY = 1 << 18;
+
+    // How many slots to look at for a pair before overwriting the first
+    private static final int MEMO_PROBES = 4;
+
+    // Work out this many rows in a single task rather than splitting further
+    private static final int ROWS_PER_TASK = 8;
+
+    private static final ThreadLocal<Memo> memoPerThread = new ThreadLocal<>();
+
+    // Each calculator takes a new version whenever links change, unique
+    // across all calculators so a memo knows whether its results still hold
+    private static final AtomicInteger nextVersion = new AtomicInteger();
+
+    private final PersonStore personStore;
+    private final Memo memo;
+    private int[] generations;
+    private int version;
+
+    KinshipCalculator(PersonStore personStore) {
+        this.personStore = personStore;
+        this.memo = new Memo();
+        this.generations = null;
+        this.version = nextVersion.incrementAndGet();
+    }
+
+    /**
+     * Results so far and the stack to work out new ones, for a single thread
+     */
+    private static class Memo {
+        private final long[] keys;
+        private final double[] values;
+        private int version;
+
+        // the stack of pairs being worked out, which step each is on and the
+        // sum of the results of the pairs they are waiting for
+        private int[] IDs1;
+        private int[] IDs2;
+        private int[] steps;
+        private double[] sums;
+        private int size;
+
+        Memo() {
+            this.keys = new long[MEMO_CAPACITY];
+            this.values = new double[MEMO_CAPACITY];
+            this.IDs1 = new int[16];
+            this.IDs2 = new int[16];
+            this.steps = new int[16];
+            this.sums = new double[16];
+        }
+
+        /**
+         * Forget everything unless it was worked out for the given version
+         */
+        void use(int version) {
+            if (this.version != version) {
+                Arrays.fill(this.keys, 0);
+                this.version = version;
+            }
+        }
+
+        /**
+         * Return the kinship of the given pair or NaN if it isn't known
+         */
+        double get(int ID1, int ID2) {
+            long key = key(ID1, ID2);
+            int slot = slot(key);
+            for (int i = 0; i < MEMO_PROBES; i++) {
+                int probe = (slot + i) & (MEMO_CAPACITY - 1);
+                if (this.keys[probe] == key) {
+                    return this.values[probe];
+                }
+                if (this.keys[probe] == 0) {
+                    break;
+                }
+            }
+            return Double.NaN;
+        }
+
+        void put(int ID1, int ID2, double value) {
+            long key = key(ID1, ID2);
+            int slot = slot(key);
+            int chosen = slot;
+            for (int i = 0; i < MEMO_PROBES; i++) {
+                int probe = (slot + i) & (MEMO_CAPACITY - 1);
+                if (this.keys[probe] == 0 || this.keys[probe] == key) {
+                    chosen = probe;
+                    break;
+                }
+            }
+            this.keys[chosen] = key;
+            this.values[chosen] = value;
+        }
+
+        void push(int ID1, int ID2) {
+            if (this.size == this.IDs1.length) {
+                this.IDs1 = Arrays.copyOf(this.IDs1, this.size * 2);
+                this.IDs2 = Arrays.copyOf(this.IDs2, this.size * 2);
+                this.steps = Arrays.copyOf(this.steps, this.size * 2);
+                this.sums = Arrays.copyOf(this.sums, this.size * 2);
+            }
+            this.IDs1[this.size] = ID1;
+            this.IDs2[this.size] = ID2;
+            this.steps[this.size] = 0;
+            this.sums[this.size] = 0;
+            this.size++;
+        }
+
+        /**
+         * Return the key for a pair, the same whichever way round they are.
+         * IDs start from 1 so it is never 0, which marks an empty slot.
+         */
+        private static long key(int ID1, int ID2) {
+            return ((long) Math.min(ID1, ID2) << 32) | Math.max(ID1, ID2);
+        }
+
+        private static int slot(long key) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash >>> 32) & (MEMO_CAPACITY - 1);
+        }
+    }
+
+    /**
+     * Forget everything worked out so far since a link has changed
+     */
+    void invalidate() {
+        this.generations = null;
+        this.version = nextVersion.incrementAndGet();
+    }
+
+    /**
+     * Return the kinship coefficient of the two given people
+     */
+    double kinship(Person person, Person relative) {
+        this.order();
+        this.memo.use(this.version);
+        return this.compute(person.getID(), relative.getID(), this.memo);
+    }
+
+    /**
+     * Return the kinship coefficient of every pair of the given people, in
+     * the same order, working out rows in parallel
+     */
+    double[][] kinshipMatrix(List<Person> people) {
+        this.order();
+        int[] IDs = new int[people.size()];
+        for (int i = 0; i < IDs.length; i++) {
+            IDs[i] = people.get(i).getID();
+        }
+        double[][] matrix = new double[IDs.length][IDs.length];
+        new Task(IDs, matrix, 0, IDs.length).invoke();
+        return matrix;
+    }
+
+    /**
+     * Work out the kinship of the pair with the given IDs using the given
+     * memo, whose stack must be empty and is left empty
+     */
+    private double compute(int startID1, int startID2, Memo memo) {
+        int[] generations = this.generations;
+        double result = 0;
+        memo.push(startID1, startID2);
+
+        while (memo.size > 0) {
+            int top = memo.size - 1;
+            int ID1 = memo.IDs1[top];
+            int ID2 = memo.IDs2[top];
+            int step = memo.steps[top]++;
+            double value;
+
+            // already known, otherwise go up from whoever is further down
+            if (step == 0) {
+                value = memo.get(ID1, ID2);
+                if (Double.isNaN(value)) {
+                    if (generations[ID1] < generations[ID2] || (generations[ID1] == generations[ID2] && ID1 < ID2)) {
+                        memo.IDs1[top] = ID2;
+                        memo.IDs2[top] = ID1;
+                    }
+                    continue;
+                }
+
+            // someone with themself depends on the kinship of their parents
+            } else if (ID1 == ID2) {
+                if (step == 1) {
+                    Person person = this.personStore.lookup(ID1);
+                    int motherID = this.knownParentID(person, person.getMotherID());
+                    int fatherID = this.knownParentID(person, person.getFatherID());
+                    if (motherID != 0 && fatherID != 0) {
+                        memo.push(motherID, fatherID);
+                    }
+                    continue;
+                }
+                value = (1 + memo.sums[top]) / 2;
+                memo.put(ID1, ID2, value);
+
+            // otherwise on the kinship of each of the first's parents with
+            // the second
+            } else {
+                if (step <= 2) {
+                    Person person = this.personStore.lookup(ID1);
+                    int parentID = this.knownParentID(person, step == 1 ? person.getMotherID() : person.getFatherID());
+                    if (parentID != 0) {
+                        memo.push(parentID, ID2);
+                    }
+                    continue;
+                }
+                value = memo.sums[top] / 2;
+                memo.put(ID1, ID2, value);
+            }
+
+            // give the value to whoever was waiting for it
+            memo.size--;
+            if (memo.size > 0) {
+                memo.sums[memo.size - 1] += value;
+            } else {
+                result = value;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the given parent ID of the given person if they are known and
+     * above them in the tree, otherwise 0
+     */
+    private int knownParentID(Person person, Integer parentID) {
+        if (parentID == null || this.personStore.lookup(parentID) == null
+            || this.generations[parentID] >= this.generations[person.getID()]) {
+            return 0;
+        }
+        return parentID;
+    }
+
+    /**
+     * Work out how many generations below the top of the tree everyone is
+     * unless it is still known
+     */
+    private void order() {
+        if (this.generations == null || this.generations.length < this.personStore.getIDBound()) {
+            this.generations = this.personStore.generations();
+        }
+    }
+
+    /**
+     * Works out the given rows of the matrix and the same columns
+     */
+    private class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int[] IDs;
+        private final double[][] matrix;
+        private final int start;
+        private final int end;
+
+        Task(int[] IDs, double[][] matrix, int start, int end) {
+            this.IDs = IDs;
+            this.matrix = matrix;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected void compute() {
+            if (this.end - this.start > ROWS_PER_TASK) {
+                int middle = (this.start + this.end) >>> 1;
+                invokeAll(new Task(this.IDs, this.matrix, this.start, middle),
+                          new Task(this.IDs, this.matrix, middle, this.end));
+                return;
+            }
+
+            Memo memo = memoPerThread.get();
+            if (memo == null) {
+                memo = new Memo();
+                memoPerThread.set(memo);
+            }
+            memo.use(version);
+            for (int i = this.start; i < this.end; i++) {
+                for (int j = i; j < this.IDs.length; j++) {
+                    double value = KinshipCalculator.this.compute(this.IDs[i], this.IDs[j], memo);
+                    this.matrix[i][j] = value;
+                    this.matrix[j][i] = value;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds the shortest chain of parent and child links between two people by
+ * searching breadth first from both ends at once, a whole generation of
+ * whichever side has fewer people waiting each time, until the two searches
+ * meet. Each side only has to search about half the distance so far fewer
+ * people are visited than searching from one end.
+ *
+ * Who has been visited by each side and who they were reached from are
+ * kept in arrays indexed by ID along with the queues, all reused between
+ * searches. A stamp per entry says which search wrote it so nothing needs
+ * clearing and nothing is allocated per person visited.
+ */
+class PathFinder {
+    private final PersonStore personStore;
+    private int stamp;
+    private final Side fromStart;
+    private final Side fromEnd;
+
+    /**
+     * The state of the search from one end
+     */
+    private static class Side {
+        private int[] stamps;
+        private int[] cameFrom;
+        private int[] queue;
+        private int head;
+        private int tail;
+
+        Side() {
+            this.stamps = new int[0];
+            this.cameFrom = new int[0];
+            this.queue = new int[16];
+        }
+
+        void resize(int size) {
+            this.stamps = new int[size];
+            this.cameFrom = new int[size];
+        }
+
+        void enqueue(int ID) {
+            if (this.tail == this.queue.length) {
+                int[] bigger = new int[this.queue.length * 2];
+                System.arraycopy(this.queue, 0, bigger, 0, this.tail);
+                this.queue = bigger;
+            }
+            this.queue[this.tail++] = ID;
+        }
+
+        int waiting() {
+            return this.tail - this.head;
+        }
+    }
+
+    PathFinder(PersonStore personStore) {
+        this.personStore = personStore;
+        this.stamp = 0;
+        this.fromStart = new Side();
+        this.fromEnd = new Side();
+    }
+
+    /**
+     * Return the people on the shortest chain of parent and child links from
+     * the given start to the given end including both, or null if there is
+     * no such chain
+     */
+    List<Person> find(Person start, Person end) {
+        this.begin();
+        this.visit(this.fromStart, start.getID(), 0);
+        this.visit(this.fromEnd, end.getID(), 0);
+
+        int meetStart = start.getID() == end.getID() ? start.getID() : 0;
+        int meetEnd = meetStart;
+        while (meetStart == 0 && this.fromStart.waiting() > 0 && this.fromEnd.waiting() > 0) {
+            boolean startSmaller = this.fromStart.waiting() <= this.fromEnd.waiting();
+            Side side = startSmaller ? this.fromStart : this.fromEnd;
+            Side other = startSmaller ? this.fromEnd : this.fromStart;
+
+            // search a whole generation and keep the first meeting since all
+            // meetings in the same generation are the same length
+            int generationEnd = side.tail;
+            while (side.head < generationEnd) {
+                int ID = side.queue[side.head++];
+                Person person = this.personStore.lookup(ID);
+
+                int met = this.visitRelatives(side, other, person);
+                if (met != 0 && meetStart == 0) {
+                    meetStart = startSmaller ? ID : met;
+                    meetEnd = startSmaller ? met : ID;
+                }
+            }
+        }
+
+        if (meetStart == 0) {
+            return null;
+        }
+
+        // follow where each side came from back to its end
+        ArrayList<Person> path = new ArrayList<>();
+        for (int ID = meetStart; ID != 0; ID = this.fromStart.cameFrom[ID]) {
+            path.add(this.personStore.lookup(ID));
+        }
+        Collections.reverse(path);
+        if (meetEnd != meetStart) {
+            for (int ID = meetEnd; ID != 0; ID = this.fromEnd.cameFrom[ID]) {
+                path.add(this.personStore.lookup(ID));
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Visit the parents and children of the given person from the given
+     * side. Return the ID of one of them already visited by the other side
+     * or 0 if there isn't one.
+     */
+    private int visitRelatives(Side side, Side other, Person person) {
+        int met = 0;
+        Integer[] parentIDs = {person.getMotherID(), person.getFatherID()};
+        for (Integer parentID: parentIDs) {
+            if (parentID != null && this.personStore.lookup(parentID) != null) {
+                met = this.visitRelative(side, other, parentID, person.getID(), met);
+            }
+        }
+        int numChildren = person.getNumChildren();
+        for (int i = 0; i < numChildren; i++) {
+            met = this.visitRelative(side, other, person.getChildID(i), person.getID(), met);
+        }
+        return met;
+    }
+
+    private int visitRelative(Side side, Side other, int ID, int cameFrom, int met) {
+        if (side.stamps[ID] != this.stamp) {
+            this.visit(side, ID, cameFrom);
+        }
+        if (met == 0 && other.stamps[ID] == this.stamp) {
+            return ID;
+        }
+        return met;
+    }
+
+    private void visit(Side side, int ID, int cameFrom) {
+        side.stamps[ID] = this.stamp;
+        side.cameFrom[ID] = cameFrom;
+        side.enqueue(ID);
+    }
+
+    /**
+     * Start a new search with a new stamp, making the arrays big enough for
+     * everyone stored
+     */
+    private void begin() {
+        int size = this.personStore.getIDBound();
+        if (this.fromStart.stamps.length < size || this.stamp == Integer.MAX_VALUE) {
+            size = Math.max(size, this.fromStart.stamps.length * 2);
+            this.fromStart.resize(size);
+            this.fromEnd.resize(size);
+            this.stamp = 0;
+        }
+        this.stamp++;
+        this.fromStart.head = 0;
+        this.fromStart.tail = 0;
+        this.fromEnd.head = 0;
+        this.fromEnd.tail = 0;
+    }
+}
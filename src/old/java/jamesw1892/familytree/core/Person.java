@@ -1,7 +1,8 @@
 package core;
 
+import java.io.IOException;
 import java.time.LocalDate;
-import java.util.HashSet;
+import java.util.zip.DataFormatException;
 
 /**
  * Methods starting with 'get' get the data in its original datatype
@@ -25,7 +26,7 @@ public class Person implements Comparable<Person> {
     private String notes;               //  N (empty instead)
     private Integer motherID;           //  Y                   > 0
     private Integer fatherID;           //  Y                   > 0
-    private HashSet<Integer> children;  //  N (empty instead)
+    private ChildIndex childIndex;      //  Y (no children yet)     Shared by everyone in the store
 
     public Person(int ID, String nameFirst, String nameMiddles, String nameLast,
                   Boolean isMale,   Integer birthYear, Integer birthMonth, Integer birthDay,
@@ -51,7 +52,6 @@ public class Person implements Comparable<Person> {
         this.setNotes(notes);
         this.setMotherID(motherID);
         this.setFatherID(fatherID);
-        this.children = new HashSet<>();
     }
 
     public static Person dummyPerson(int ID) {
@@ -157,12 +157,30 @@ public class Person implements Comparable<Person> {
         this.fatherID = fatherID;
     }
 
+    /**
+     * Keep this person's children in the given index shared by everyone in
+     * the store, moving any children they already have into it
+     */
+    void useChildIndex(ChildIndex childIndex) {
+        if (this.childIndex != null) {
+            for (int childID: this.childIndex.toArray(this.ID)) {
+                childIndex.add(this.ID, childID);
+            }
+        }
+        this.childIndex = childIndex;
+    }
+
     protected void addChild(int childID) {
-        this.children.add(childID);
+        if (this.childIndex == null) {
+            this.childIndex = new ChildIndex();
+        }
+        this.childIndex.add(this.ID, childID);
     }
 
     protected void removeChild(int childID) {
-        this.children.remove(childID);
+        if (this.childIndex != null) {
+            this.childIndex.remove(this.ID, childID);
+        }
     }
 
     // getters (data as original type)
@@ -181,7 +199,28 @@ public class Person implements Comparable<Person> {
     public String getNotes()                    { return this.notes; }
     public Integer getMotherID()                { return this.motherID; }
     public Integer getFatherID()                { return this.fatherID; }
-    public HashSet<Integer> getChildrenIDs()    { return this.children; }
+
+    /**
+     * Children are iterated without allocating anything by calling
+     * `getChildID` with each index from 0 up to `getNumChildren`
+     */
+    public int getNumChildren() {
+        return this.childIndex == null ? 0 : this.childIndex.count(this.ID);
+    }
+
+    public int getChildID(int index) {
+        if (this.childIndex == null) {
+            throw new IndexOutOfBoundsException("No children");
+        }
+        return this.childIndex.get(this.ID, index);
+    }
+
+    /**
+     * Return a copy of the IDs of this person's children
+     */
+    public int[] getChildrenIDs() {
+        return this.childIndex == null ? new int[0] : this.childIndex.toArray(this.ID);
+    }
 
     // format-ers (data formatted as String)
     public String formatID() {
@@ -341,8 +380,11 @@ public class Person implements Comparable<Person> {
     }
 
     public String formatChildrenIDs() {
-        String s = this.getChildrenIDs().toString();
-        return s.substring(1, s.length() - 1);
+        String out = "";
+        for (int i = 0; i < this.getNumChildren(); i++) {
+            out += (i == 0 ? "" : ", ") + this.getChildID(i);
+        }
+        return out;
     }
 
     public String formatNotes() {
@@ -382,20 +424,65 @@ public class Person implements Comparable<Person> {
     }
 
     public String toFile() {
-        return  this.formatID()
-        + "," + Util.URLEncode(this.nameFirst)
-        + "," + Util.URLEncode(this.nameMiddles)
-        + "," + Util.URLEncode(this.nameLast)
-        + "," + optionalObjectToFile(this.isMale)
-        + "," + optionalObjectToFile(this.birthYear)
-        + "," + optionalObjectToFile(this.birthMonth)
-        + "," + optionalObjectToFile(this.birthDay)
-        + "," + optionalObjectToFile(this.isLiving)
-        + "," + optionalObjectToFile(this.deathYear)
-        + "," + optionalObjectToFile(this.deathMonth)
-        + "," + optionalObjectToFile(this.deathDay)
-        + "," + optionalObjectToFile(this.motherID)
-        + "," + optionalObjectToFile(this.fatherID)
-        + "," + Util.URLEncode(this.notes);
-    }
-}
\ No newline at end of file
+        StringBuilder sb = new StringBuilder();
+        try {
+            this.toFile(sb);
+        } catch (IOException err) {
+            // appending to a StringBuilder never throws
+            throw new RuntimeException(err);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Append the line representing this person in the file to the given
+     * output without building the whole line as an intermediate string so
+     * many people can be streamed straight into a buffered writer
+     */
+    public void toFile(Appendable out) throws IOException {
+        out.append(this.formatID())
+        .append(',').append(Util.URLEncode(this.nameFirst))
+        .append(',').append(Util.URLEncode(this.nameMiddles))
+        .append(',').append(Util.URLEncode(this.nameLast))
+        .append(',').append(optionalObjectToFile(this.isMale))
+        .append(',').append(optionalObjectToFile(this.birthYear))
+        .append(',').append(optionalObjectToFile(this.birthMonth))
+        .append(',').append(optionalObjectToFile(this.birthDay))
+        .append(',').append(optionalObjectToFile(this.isLiving))
+        .append(',').append(optionalObjectToFile(this.deathYear))
+        .append(',').append(optionalObjectToFile(this.deathMonth))
+        .append(',').append(optionalObjectToFile(this.deathDay))
+        .append(',').append(optionalObjectToFile(this.motherID))
+        .append(',').append(optionalObjectToFile(this.fatherID))
+        .append(',').append(Util.URLEncode(this.notes));
+    }
+
+    /**
+     * Parse a line of the file into a new person, the opposite of `toFile`
+     */
+    public static Person fromFile(String line) throws DataFormatException {
+        String[] fields = line.split(",", -1);
+
+        if (fields.length != 15) {
+            throw new DataFormatException("Must be 15 fields per line");
+        }
+
+        return new Person(
+            Integer.parseInt(fields[0]),
+            Util.URLDecode(fields[1]),
+            Util.URLDecode(fields[2]),
+            Util.URLDecode(fields[3]),
+            "".equals(fields[4]) ? null : Boolean.parseBoolean(fields[4]),
+            "".equals(fields[5]) ? null : Integer.parseInt(fields[5]),
+            "".equals(fields[6]) ? null : Integer.parseInt(fields[6]),
+            "".equals(fields[7]) ? null : Integer.parseInt(fields[7]),
+            "".equals(fields[8]) ? null : Boolean.parseBoolean(fields[8]),
+            "".equals(fields[9]) ? null : Integer.parseInt(fields[9]),
+            "".equals(fields[10]) ? null : Integer.parseInt(fields[10]),
+            "".equals(fields[11]) ? null : Integer.parseInt(fields[11]),
+            Util.URLDecode(fields[14]),
+            "".equals(fields[12]) ? null : Integer.parseInt(fields[12]),
+            "".equals(fields[13]) ? null : Integer.parseInt(fields[13])
+        );
+    }
+}
@@ -0,0 +1,97 @@
+package core;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Everyone stored, looked up by ID. Since IDs are given out from 1 upwards
+ * and gaps are reused, they are dense so each person is stored in an array at
+ * the index of their ID. This makes finding someone by ID a single array
+ * access with nothing allocated. Iterating goes through everyone in order of
+ * ID.
+ */
+class PersonIndex extends AbstractCollection<Person> {
+    private Person[] people;
+    private int size;
+
+    PersonIndex() {
+        this.people = new Person[16];
+        this.size = 0;
+    }
+
+    /**
+     * Return the person with the given ID or null if there isn't one
+     */
+    Person get(int ID) {
+        Person[] people = this.people;
+        if (ID < 0 || ID >= people.length) {
+            return null;
+        }
+        return people[ID];
+    }
+
+    /**
+     * Store the given person, replacing anyone with the same ID
+     */
+    void put(Person person) {
+        int ID = person.getID();
+        if (ID >= this.people.length) {
+            Person[] bigger = new Person[Math.max(ID + 1, this.people.length * 2)];
+            System.arraycopy(this.people, 0, bigger, 0, this.people.length);
+            this.people = bigger;
+        }
+        if (this.people[ID] == null) {
+            this.size++;
+        }
+        this.people[ID] = person;
+    }
+
+    /**
+     * Remove the person with the given ID if there is one
+     */
+    void remove(int ID) {
+        if (this.get(ID) != null) {
+            this.people[ID] = null;
+            this.size--;
+        }
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public Iterator<Person> iterator() {
+        Person[] people = this.people;
+        return new Iterator<Person>() {
+            private int index = 0;
+            private Person next = this.advance();
+
+            /**
+             * Return the next person from the current index onwards
+             */
+            private Person advance() {
+                while (this.index < people.length) {
+                    Person person = people[this.index++];
+                    if (person != null) {
+                        return person;
+                    }
+                }
+                return null;
+            }
+
+            public boolean hasNext() {
+                return this.next != null;
+            }
+
+            public Person next() {
+                if (this.next == null) {
+                    throw new NoSuchElementException();
+                }
+                Person person = this.next;
+                this.next = this.advance();
+                return person;
+            }
+        };
+    }
+}
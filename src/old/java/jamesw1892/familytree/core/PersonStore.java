@@ -1,90 +1,170 @@
 package core;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.time.LocalDate;
-import java.util.HashMap;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.DataFormatException;
 
 /**
  * Instantiate to read the file.
- * Write to the file at the end or changes will not be saved.
+ * Write to the file at the end or changes will not be saved, or call `save`
+ * after each change which only appends to a journal if `useJournal` was called.
  */
 public class PersonStore {
 
     // Constants
     private static final String FILENAME = "./People.csv";
+    private static final int COMPACT_JOURNAL_AFTER = 1000;
     private static final String HEADINGS = "ID,First Name,Middle Names,Last Name,Is Male,Birth Year,Birth Month,Birth Day,Is Living,Death Year,Death Month,Death Day,Mother ID,Father ID,Notes";
 
-    // Comparators
-    private static final ComparatorDaysUntilBirthday comparatorDaysUntilBirthday = new ComparatorDaysUntilBirthday();
-
     // Attributes
-    private TreeSet<Person> peopleByID;
-    private TreeSet<Person> peopleByDaysUntilBirthday;
+    private PersonIndex peopleByID;
+    private ChildIndex childIndex;
+    private DescendantCounts descendantCounts;
+    private RelationshipFinder relationshipFinder;
+    private PathFinder pathFinder;
+    private KinshipCalculator kinshipCalculator;
+    private AncestorIndex ancestorIndex;
+    private RelativesIndex relativesIndex;
+    private FamilyGroups familyGroups;
+    private BirthdayIndex peopleByBirthday;
+    private BirthdayIndex livingByBirthday;
     private TreeSet<Integer> unusedIDs;
     private int nextID;
-    private LocalDate dateLastUpdatedPeopleByDaysUntilBirthday;
+    private final String filename;
+    private Journal journal;
+    private WriteBehind writeBehind;
+    private boolean compacting;
+    private IOException compactFailure;
+    private int numWrites;
 
     public PersonStore() throws IOException, DataFormatException {
+        this(FILENAME);
+    }
+
+    /**
+     * Read the people stored in the given file rather than the default one
+     * @param filename
+     */
+    public PersonStore(String filename) throws IOException, DataFormatException {
+        this.filename = filename;
         this.read();
     }
 
-    public TreeSet<Person> getEveryoneByID(){
+    /**
+     * Return the name of the file people are read from and written to
+     */
+    public String getFilename() {
+        return this.filename;
+    }
+
+    /**
+     * Return everyone in order of ID. The list is a copy so it can be
+     * iterated while other threads change people.
+     */
+    public synchronized List<Person> getEveryoneByID(){
+        return new ArrayList<>(this.peopleByID);
+    }
+
+    /**
+     * Return everyone in order of ID without copying, for use by indexes that
+     * are only called while holding the lock
+     */
+    Collection<Person> people() {
         return this.peopleByID;
     }
 
-    public TreeSet<Person> getEveryoneByDaysUntilBirthday() {
+    /**
+     * Return everyone in order of the number of days until their birthday,
+     * starting from today. The list is a copy so it can be iterated while
+     * other threads change people.
+     */
+    public synchronized List<Person> getEveryoneByDaysUntilBirthday() {
+        return new ArrayList<>(this.peopleByBirthday);
+    }
 
-        // If the program is running for multiple days, the tree set ordering
-        // will become wrong. So recalculate it if it hasn't been updated today.
-        LocalDate today = LocalDate.now();
-        if (!today.equals(this.dateLastUpdatedPeopleByDaysUntilBirthday)) {
-            this.peopleByDaysUntilBirthday.clear();
-            this.peopleByDaysUntilBirthday.addAll(this.peopleByID);
-            this.dateLastUpdatedPeopleByDaysUntilBirthday = today;
+    /**
+     * Return the people with the next birthdays from today, skipping the
+     * first `offset` and returning at most `limit`. If `livingOnly`, only
+     * people known to be living are included. Takes time proportional to
+     * the number of people returned rather than everyone.
+     */
+    public synchronized List<Person> nextBirthdays(int offset, int limit, boolean livingOnly) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit must not be negative");
         }
+        BirthdayIndex index = livingOnly ? this.livingByBirthday : this.peopleByBirthday;
+        return index.next(offset, limit);
+    }
 
-        return this.peopleByDaysUntilBirthday;
+    public synchronized Person getMother(Person person) {
+        return this.lookupMother(person);
     }
 
-    public Person getMother(Person person) {
+    /**
+     * Return the mother of the given person like `getMother` but without
+     * taking the lock, in the same way as `lookup`
+     */
+    Person lookupMother(Person person) {
         if (person == null || person.getMotherID() == null) {
             return null;
         }
-        return this.find(person.getMotherID());
+        return this.lookup(person.getMotherID());
     }
 
-    public String formatMotherName(Person person) {
+    public synchronized String formatMotherName(Person person) {
         Person mother = this.getMother(person);
         return mother == null ? "Unknown" : mother.formatNameFirstLast();
     }
 
-    public Person getFather(Person person) {
+    public synchronized Person getFather(Person person) {
+        return this.lookupFather(person);
+    }
+
+    /**
+     * Return the father of the given person like `getFather` but without
+     * taking the lock, in the same way as `lookup`
+     */
+    Person lookupFather(Person person) {
         if (person == null || person.getFatherID() == null) {
             return null;
         }
-        return this.find(person.getFatherID());
+        return this.lookup(person.getFatherID());
     }
 
-    public String formatFatherName(Person person) {
+    public synchronized String formatFatherName(Person person) {
         Person father = this.getFather(person);
         return father == null ? "Unknown" : father.formatNameFirstLast();
     }
 
-    public HashSet<Person> getChildren(Person person) {
+    public synchronized HashSet<Person> getChildren(Person person) {
         if (person == null) {
             return null;
         }
         HashSet<Person> children = new HashSet<>();
 
-        for (Integer childID: person.getChildrenIDs()) {
-            Person child = this.find(childID);
+        for (int i = 0; i < person.getNumChildren(); i++) {
+            Person child = this.find(person.getChildID(i));
             if (child != null) {
                 children.add(child);
             }
@@ -95,57 +175,59 @@ public class PersonStore {
 
     /**
      * Return all people who share children with this person, not including
-     * this person themself.
+     * this person themself, in order of ID. The set can't be changed and
+     * stays the same even if links change, and is kept until they do.
      * Return null if and only if this person is null.
      */
-    public HashSet<Person> getPartners(Person person) {
+    public synchronized Set<Person> getPartners(Person person) {
         if (person == null) {
             return null;
         }
-        HashSet<Person> partners = new HashSet<>();
-
-        for (Person child: this.getChildren(person)) {
-            Person[] parents = {this.getMother(child), this.getFather(child)};
-            for (Person parent: parents) {
-                if (parent != null && !parent.equals(person)) {
-                    partners.add(parent);
-                }
-            }
-        }
-        return partners;
+        return this.relativesIndex.partners(person);
     }
 
     /**
      * Return all people who share parents with this person, not including this
-     * person themself.
+     * person themself, in order of ID. The set can't be changed and stays the
+     * same even if links change, and is kept until they do.
      * Return null if and only if this person is null.
      */
-    public HashSet<Person> getSiblings(Person person) {
+    public synchronized Set<Person> getSiblings(Person person) {
         if (person == null) {
             return null;
         }
-        HashSet<Person> siblings = new HashSet<>();
-        Person[] parents = {this.getMother(person), this.getFather(person)};
+        return this.relativesIndex.siblings(person);
+    }
 
-        for (Person parent: parents) {
-            if (parent != null) {
-                for (Person child: this.getChildren(parent)) {
-                    if (!child.equals(person)) {
-                        siblings.add(child);
-                    }
-                }
-            }
+    /**
+     * Return the siblings of this person who have the same mother and father,
+     * both known, in the same way as `getSiblings`
+     */
+    public synchronized Set<Person> getFullSiblings(Person person) {
+        if (person == null) {
+            return null;
         }
-        return siblings;
+        return this.relativesIndex.fullSiblings(person);
     }
 
-    public String formatChildrenNames(Person person) {
+    /**
+     * Return the siblings of this person who only have one of the same known
+     * parents, in the same way as `getSiblings`
+     */
+    public synchronized Set<Person> getHalfSiblings(Person person) {
+        if (person == null) {
+            return null;
+        }
+        return this.relativesIndex.halfSiblings(person);
+    }
+
+    public synchronized String formatChildrenNames(Person person) {
         if (person == null) {
             return null;
         }
         String out = "";
-        for (Integer childID: person.getChildrenIDs()) {
-            Person child = this.find(childID);
+        for (int i = 0; i < person.getNumChildren(); i++) {
+            Person child = this.find(person.getChildID(i));
             if (child != null) {
                 out += child.formatNameFirstLast() + ", ";
             }
@@ -170,59 +252,289 @@ public class PersonStore {
     }
 
     /**
-     * Return the number of descendants of the given person using the given
-     * cache of already calculated number of descendants.
+     * Return the number of distinct descendants of the given person so
+     * someone descended from them in more than one way is only counted once
      */
-    private int numDescendants(Person person, HashMap<Integer, Integer> cache) {
+    public synchronized int numDescendants(Person person) {
+        if (this.descendantCounts.isCounted(person.getID())) {
+            return this.descendantCounts.get(person.getID());
+        }
+        AtomicInteger count = new AtomicInteger(-1); // don't count themself
+        new Walker(this, Walker.Direction.DOWN, Walker.UNLIMITED).walkParallel(person, (descendant, depth) -> {
+            count.incrementAndGet();
+            return true;
+        });
+        return count.get();
+    }
+
+    public synchronized Relationship relationship(int ID, int relativeID) {
+        return this.relationship(this.findAssert(ID), this.findAssert(relativeID));
+    }
 
-        // If we have already calculated the number of descendants of this person
-        // then use it
-        Integer cached = cache.get(person.getID());
-        if (cached != null) {
-            return cached;
+    /**
+     * Return how the given relative is related by blood to the given person
+     * through their nearest common ancestors. Only their ancestors are
+     * searched so this doesn't depend on how many people are stored, and
+     * not at all for people who aren't related if the ancestor index is used.
+     */
+    public synchronized Relationship relationship(Person person, Person relative) {
+        if (this.ancestorIndex != null && !this.ancestorIndex.isRelated(person, relative)) {
+            return new Relationship(person, relative, new ArrayList<>(), 0, 0, false);
         }
+        return this.relationshipFinder.find(person, relative);
+    }
+
+    public synchronized List<Person> kinshipPath(int ID, int relativeID) {
+        return this.kinshipPath(this.findAssert(ID), this.findAssert(relativeID));
+    }
+
+    /**
+     * Return the people on the shortest chain of parent and child links from
+     * the given person to the given relative including both, or null if they
+     * aren't linked at all
+     */
+    public synchronized List<Person> kinshipPath(Person person, Person relative) {
+        return this.pathFinder.find(person, relative);
+    }
+
+    public synchronized boolean isAncestor(int ancestorID, int ID) {
+        return this.isAncestor(this.findAssert(ancestorID), this.findAssert(ID));
+    }
 
-        // Otherwise, sum the number of descendants of their children +1 per child
-        int total = 0;
-        for (int childID: person.getChildrenIDs()) {
-            total += 1 + numDescendants(this.find(childID), cache);
+    /**
+     * Return whether the given ancestor is one of the given person's
+     * ancestors, not counting themself
+     */
+    public synchronized boolean isAncestor(Person ancestor, Person person) {
+        if (this.ancestorIndex != null) {
+            return this.ancestorIndex.isAncestor(ancestor, person);
         }
+        return this.relationshipFinder.isAncestor(ancestor, person);
+    }
 
-        // Cache this result to use in future
-        cache.put(person.getID(), total);
+    public synchronized List<Person> commonAncestors(int ID, int relativeID) {
+        return this.commonAncestors(this.findAssert(ID), this.findAssert(relativeID));
+    }
+
+    /**
+     * Return everyone who is an ancestor of both given people in order of ID
+     */
+    public synchronized List<Person> commonAncestors(Person person, Person relative) {
+        int[] IDs = this.ancestorIndex != null
+            ? this.ancestorIndex.commonAncestors(person, relative)
+            : this.relationshipFinder.commonAncestors(person, relative);
+        ArrayList<Person> common = new ArrayList<>(IDs.length);
+        for (int ID: IDs) {
+            common.add(this.find(ID));
+        }
+        return common;
+    }
 
-        return total;
+    public synchronized double kinship(int ID, int relativeID) {
+        return this.kinship(this.findAssert(ID), this.findAssert(relativeID));
     }
 
     /**
-     * Return the person with the most descendants or null if there are no
-     * people stored.
+     * Return the kinship coefficient of the two given people, the chance
+     * that a gene picked at random from each is identical by descent from a
+     * common ancestor. Parents and children or full siblings have 1/4, first
+     * cousins 1/16 and anyone with themself at least 1/2.
      */
-    public Person personWithMostDescendants() {
-        // TODO: Potentially calculate this once when read and again when
-        // certain changes are made and store so don't have to recalculate
-        // each time someone views the homepage
+    public synchronized double kinship(Person person, Person relative) {
+        return this.kinshipCalculator.kinship(person, relative);
+    }
+
+    public synchronized double inbreeding(int ID) {
+        return this.inbreeding(this.findAssert(ID));
+    }
 
-        // Create an empty cache
-        HashMap<Integer, Integer> cache = new HashMap<>();
+    /**
+     * Return the inbreeding coefficient of the given person, the kinship of
+     * their parents or 0 if either is unknown
+     */
+    public synchronized double inbreeding(Person person) {
+        Person mother = this.getMother(person);
+        Person father = this.getFather(person);
+        if (mother == null || father == null) {
+            return 0;
+        }
+        return this.kinshipCalculator.kinship(mother, father);
+    }
 
-        // Initialise the default - return null if and only if there are no
-        // people stored. Initialise numDescendants to -1 so even if no-one
-        // stored has any children, the number of descendants is 0 which is
-        // > -1 so they are returned rather than null.
-        Person currentWinner = null;
-        int currentWinnerNumDescendants = -1;
+    /**
+     * Return the kinship coefficient of every pair of the given people, in
+     * the same order both ways, working them out across all cores
+     */
+    public synchronized double[][] kinshipMatrix(List<Person> people) {
+        return this.kinshipCalculator.kinshipMatrix(people);
+    }
 
-        // Go through each person in order of ID and only replace if a strictly
-        // greater number of descendants so people with lower IDs are favoured
+    /**
+     * Return everyone known to be living in order of ID
+     */
+    public synchronized List<Person> getLiving() {
+        ArrayList<Person> living = new ArrayList<>();
         for (Person person: this.peopleByID) {
-            int descendants = numDescendants(person, cache);
-            if (descendants > currentWinnerNumDescendants) {
-                currentWinner = person;
-                currentWinnerNumDescendants = descendants;
+            if (isLiving(person)) {
+                living.add(person);
             }
         }
-        return currentWinner;
+        return living;
+    }
+
+    /**
+     * Return the person with the most descendants, the one with the lowest
+     * ID if several have the most, or null if there are no people stored.
+     * This is O(1) until a link changes. Counting distinct descendants can't
+     * be kept up to date a link at a time, so the first call after links
+     * have changed counts the descendants of everyone at the top of the tree
+     * above them again, once however many links changed.
+     */
+    public synchronized Person personWithMostDescendants() {
+        this.countNeededDescendants();
+        int ID = this.descendantCounts.best();
+        return ID == 0 ? null : this.find(ID);
+    }
+
+    /**
+     * Return the person with the most descendants in the family group of the
+     * given person, the one with the lowest ID if several have the most
+     */
+    public synchronized Person personWithMostDescendants(Person person) {
+        this.countNeededDescendants();
+        Person best = null;
+        for (int ID: this.familyGroups.members(person)) {
+            if (this.descendantCounts.isCounted(ID)
+                    && (best == null || this.descendantCounts.get(ID) > this.descendantCounts.get(best.getID()))) {
+                best = this.find(ID);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Count the descendants of everyone at the top of the tree above links
+     * that have changed since they were last counted
+     */
+    private void countNeededDescendants() {
+        int[] IDs = this.descendantCounts.takeNeedsCounting();
+        if (IDs.length > 0) {
+            int[] counts = DescendantCounter.countAll(this.peopleByID, IDs, this.nextID);
+            for (int i = 0; i < IDs.length; i++) {
+                this.descendantCounts.set(IDs[i], counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Return the ID of the family group the given person is in, the lowest ID
+     * of anyone in it. Two people are in the same family group if they are
+     * linked by any chain of parents and children.
+     */
+    public synchronized int getFamilyID(Person person) {
+        return this.familyGroups.groupID(person);
+    }
+
+    /**
+     * Return how many people are in the family group of the given person
+     */
+    public synchronized int getFamilySize(Person person) {
+        return this.familyGroups.size(person);
+    }
+
+    /**
+     * Return the ID of each family group and how many people are in it,
+     * largest first
+     */
+    public synchronized Map<Integer, Integer> getFamilySizes() {
+        LinkedHashMap<Integer, Integer> sizes = new LinkedHashMap<>();
+        for (int[] group: this.familyGroups.groups()) {
+            sizes.put(group[0], group[1]);
+        }
+        return sizes;
+    }
+
+    /**
+     * Return everyone in the same family group as the given person in order
+     * of ID, taking time proportional to the size of the group
+     */
+    public synchronized List<Person> getFamily(Person person) {
+        int[] IDs = this.familyGroups.members(person);
+        ArrayList<Person> family = new ArrayList<>(IDs.length);
+        for (int ID: IDs) {
+            family.add(this.find(ID));
+        }
+        return family;
+    }
+
+    /**
+     * Return whether the given person is at the top of the tree, having no
+     * known parents
+     */
+    private boolean isTop(Person person) {
+        return this.getMother(person) == null && this.getFather(person) == null;
+    }
+
+    /**
+     * Count the distinct descendants of everyone at the top of the tree in
+     * parallel
+     */
+    private void countAllDescendants() {
+        int[] IDs = new int[this.peopleByID.size()];
+        int numTops = 0;
+        for (Person person: this.peopleByID) {
+            if (this.isTop(person)) {
+                IDs[numTops++] = person.getID();
+            }
+        }
+        IDs = Arrays.copyOf(IDs, numTops);
+
+        int[] counts = DescendantCounter.countAll(this.peopleByID, IDs, this.nextID);
+        int[] countsByID = new int[this.nextID];
+        boolean[] present = new boolean[this.nextID];
+        for (int i = 0; i < IDs.length; i++) {
+            countsByID[IDs[i]] = counts[i];
+            present[IDs[i]] = true;
+        }
+        this.descendantCounts.setAll(countsByID, present);
+    }
+
+    /**
+     * Mark everyone at the top of the tree above the given person, or the
+     * person themself if they are at the top, as needing their descendants
+     * counting again since the given person's descendants have changed
+     */
+    private void markTopsAbove(Person person) {
+        BitSet visited = new BitSet(this.nextID);
+        new Walker(this, Walker.Direction.UP, Walker.UNLIMITED).walk(person, new Walker.Visitor() {
+            public boolean enter(Person ancestor, int depth) {
+                if (visited.get(ancestor.getID())) {
+                    return false;
+                }
+                visited.set(ancestor.getID());
+                if (isTop(ancestor)) {
+                    descendantCounts.markNeedsCounting(ancestor.getID());
+                }
+                return true;
+            }
+
+            public void leave(Person ancestor, int depth) {}
+        });
+    }
+
+    /**
+     * Keep whether the given person is counted as at the top of the tree up
+     * to date after their parents have changed
+     */
+    private void updateTop(Person person) {
+        if (this.isTop(person)) {
+            if (!this.descendantCounts.isCounted(person.getID())) {
+                this.descendantCounts.set(person.getID(), 0);
+            }
+            this.descendantCounts.markNeedsCounting(person.getID());
+        } else {
+            this.descendantCounts.remove(person.getID());
+        }
     }
 
     /**
@@ -230,15 +542,28 @@ public class PersonStore {
      * @param ID
      * @return
      */
-    public Person find(int ID) {
-        Person person = this.peopleByID.floor(Person.dummyPerson(ID));
-        if (person == null || person.getID() != ID) {
-            return null;
-        }
-        return person;
+    public synchronized Person find(int ID) {
+        return this.lookup(ID);
+    }
+
+    /**
+     * Return the person with given ID or null like `find` but without taking
+     * the lock. For indexes and calculations that only run while a caller
+     * holds it, including on the threads they split their work across which
+     * would otherwise wait forever for that caller.
+     */
+    Person lookup(int ID) {
+        return this.peopleByID.get(ID);
     }
 
-    public Person findAssert(int ID) {
+    /**
+     * Return a number greater than every ID used so far
+     */
+    int getIDBound() {
+        return this.nextID;
+    }
+
+    public synchronized Person findAssert(int ID) {
         Person person = this.find(ID);
         if (person == null) {
             throw new IllegalArgumentException("Person not found");
@@ -246,41 +571,90 @@ public class PersonStore {
         return person;
     }
 
-    public int add(String nameFirst, String nameMiddles, String nameLast, Boolean isMale,
+    public synchronized int add(String nameFirst, String nameMiddles, String nameLast, Boolean isMale,
                     Integer birthYear, Integer birthMonth, Integer birthDay, Boolean isLiving,
                     Integer deathYear, Integer deathMonth, Integer deathDay, String notes) {
-        int id = this.getNextIDToUse();
-        Person person = new Person(id, nameFirst, nameMiddles, nameLast,
+        Person person = new Person(this.getNextIDToUse(), nameFirst, nameMiddles, nameLast,
         isMale, birthYear, birthMonth, birthDay, isLiving,
         deathYear, deathMonth, deathDay, notes, null, null);
-        this.peopleByID.add(person);
-        this.peopleByDaysUntilBirthday.add(person);
-        return id;
+        this.insert(person);
+        this.recordChange(Journal.ADD, person.toFile());
+        return person.getID();
     }
 
-    public void delete(int ID) {
-        for (Person person: this.peopleByID) {
-            Integer mID = person.getMotherID();
-            Integer fID = person.getFatherID();
-            if (mID != null && mID.equals(ID)) {
-                // person.setMotherID(null);
+    public synchronized void delete(int ID) {
+        Person person = this.find(ID);
+        if (person != null) {
+            this.checkCanDelete(person, null);
+        }
+        this.remove(ID);
+        this.recordChange(Journal.DELETE, String.valueOf(ID));
+    }
+
+    /**
+     * Delete everyone with the given IDs. Someone can be deleted along with
+     * their children but not without them. Everyone is checked before anyone
+     * is deleted so if one can't be deleted, no-one is.
+     */
+    public synchronized void deleteAll(Collection<Integer> IDs) {
+        HashSet<Integer> batch = new HashSet<>(IDs);
+        for (int ID: batch) {
+            Person person = this.find(ID);
+            if (person != null) {
+                this.checkCanDelete(person, batch);
+            }
+        }
+        for (int ID: batch) {
+            this.remove(ID);
+            this.recordChange(Journal.DELETE, String.valueOf(ID));
+        }
+    }
+
+    /**
+     * Throw an IllegalArgumentException if the given person is the parent of
+     * anyone not in the given batch, which may be null. Only their own
+     * children need checking rather than everyone.
+     */
+    private void checkCanDelete(Person person, HashSet<Integer> batch) {
+        for (int i = 0; i < person.getNumChildren(); i++) {
+            int childID = person.getChildID(i);
+            if (batch != null && batch.contains(childID)) {
+                continue;
+            }
+            Person child = this.find(childID);
+            if (this.isMotherOf(person, child)) {
                 throw new IllegalArgumentException("Cannot delete someone who is the mother of someone else");
             }
-            if (fID != null && fID.equals(ID)) {
-                // person.setFatherID(null);
+            if (this.isFatherOf(person, child)) {
                 throw new IllegalArgumentException("Cannot delete someone who is the father of someone else");
             }
         }
-        Person dummy = Person.dummyPerson(ID);
-        this.peopleByID.remove(dummy);
-        this.peopleByDaysUntilBirthday.remove(dummy);
     }
 
-    public void link(int ID, Integer motherID, Integer fatherID) {
+    private boolean isMotherOf(Person person, Person child) {
+        return child != null && child.getMotherID() != null && child.getMotherID() == person.getID();
+    }
+
+    private boolean isFatherOf(Person person, Person child) {
+        return child != null && child.getFatherID() != null && child.getFatherID() == person.getID();
+    }
+
+    public synchronized void link(int ID, Integer motherID, Integer fatherID) {
         this.link(this.findAssert(ID), motherID, fatherID);
     }
 
-    public void link(Person person, Integer newMotherID, Integer newFatherID) {
+    public synchronized void link(Person person, Integer newMotherID, Integer newFatherID) {
+        this.checkParents(person, newMotherID, newFatherID);
+        this.relink(person, newMotherID, newFatherID);
+        this.recordChange(Journal.LINK, person.formatID() + "," + optionalIDToFile(newMotherID) + "," + optionalIDToFile(newFatherID));
+    }
+
+    /**
+     * Throw an IllegalArgumentException unless the given mother is female and
+     * the given father is male and neither would make the given person their
+     * own ancestor. Either may be null meaning unknown.
+     */
+    private void checkParents(Person person, Integer newMotherID, Integer newFatherID) {
 
         // ensure the mother is female
         if (newMotherID != null) {
@@ -298,46 +672,97 @@ public class PersonStore {
             }
         }
 
+        this.checkNotOwnAncestor(person, newMotherID, person.getMotherID());
+        this.checkNotOwnAncestor(person, newFatherID, person.getFatherID());
+    }
+
+    /**
+     * Throw an IllegalArgumentException if the given new parent, unless it is
+     * unknown or unchanged from the old one, is the given person or one of
+     * their descendants since the person would become their own ancestor
+     */
+    private void checkNotOwnAncestor(Person person, Integer newParentID, Integer oldParentID) {
+        if (newParentID == null || newParentID.equals(oldParentID)) {
+            return;
+        }
+        Person newParent = this.findAssert(newParentID);
+        if (newParent == person || this.isAncestor(person, newParent)) {
+            throw new IllegalArgumentException("Cannot be their own ancestor");
+        }
+    }
+
+    /**
+     * Change the parents of the given person and update the children of their
+     * old and new parents without checking the parents are valid
+     */
+    private void relink(Person person, Integer newMotherID, Integer newFatherID) {
+
+        // everyone at the top of the tree above a parent that changes gains
+        // or loses descendants
+        ArrayList<Person> changedParents = new ArrayList<>(4);
+
+        // siblings and partners change around the old parents too
+        Person oldMother = this.getMother(person);
+        Person oldFather = this.getFather(person);
+
         // remove the person from the old mother's children if it has changed
         Integer oldMotherID = person.getMotherID();
-        if (oldMotherID != null && oldMotherID != newMotherID) {
-            Person oldMother = this.find(oldMotherID);
+        if (oldMotherID != null && !oldMotherID.equals(newMotherID)) {
             if (oldMother != null) {
                 oldMother.removeChild(person.getID());
+                changedParents.add(oldMother);
+                this.familyGroups.split();
             }
         }
 
         // remove the person from the old father's children if it has changed
         Integer oldFatherID = person.getFatherID();
-        if (oldFatherID != null && oldFatherID != newFatherID) {
-            Person oldFather = this.find(oldFatherID);
+        if (oldFatherID != null && !oldFatherID.equals(newFatherID)) {
             if (oldFather != null) {
                 oldFather.removeChild(person.getID());
+                changedParents.add(oldFather);
+                this.familyGroups.split();
             }
         }
 
         // add the person to the new mother's children if it has changed
-        if (newMotherID != null && newMotherID != oldMotherID) {
+        if (newMotherID != null && !newMotherID.equals(oldMotherID)) {
             Person newMother = this.find(newMotherID);
             if (newMother != null) {
                 newMother.addChild(person.getID());
+                changedParents.add(newMother);
+                this.familyGroups.join(person, newMother);
             }
         }
 
         // add the person to the new father's children if it has changed
-        if (newFatherID != null && newFatherID != oldFatherID) {
+        if (newFatherID != null && !newFatherID.equals(oldFatherID)) {
             Person newFather = this.find(newFatherID);
             if (newFather != null) {
                 newFather.addChild(person.getID());
+                changedParents.add(newFather);
+                this.familyGroups.join(person, newFather);
             }
         }
 
         // make the change
         person.setMotherID(newMotherID);
         person.setFatherID(newFatherID);
+
+        if (!changedParents.isEmpty()) {
+            for (Person parent: changedParents) {
+                this.markTopsAbove(parent);
+            }
+            this.updateTop(person);
+            this.kinshipCalculator.invalidate();
+            if (this.ancestorIndex != null) {
+                this.ancestorIndex.update(person);
+            }
+            this.relativesIndex.linkChanged(person, oldMother, oldFather, this.getMother(person), this.getFather(person));
+        }
     }
 
-    public void editAll(int ID, String nameFirst, String nameMiddles, String nameLast,
+    public synchronized void editAll(int ID, String nameFirst, String nameMiddles, String nameLast,
     Boolean isMale,   Integer birthYear, Integer birthMonth, Integer birthDay,
     Boolean isLiving, Integer deathYear, Integer deathMonth, Integer deathDay,
     String notes, Integer motherID, Integer fatherID) {
@@ -346,217 +771,612 @@ public class PersonStore {
         deathMonth, deathDay, notes, motherID, fatherID);
     }
 
-    public void editAll(Person person, String nameFirst, String nameMiddles, String nameLast,
+    public synchronized void editAll(Person person, String nameFirst, String nameMiddles, String nameLast,
     Boolean isMale,   Integer birthYear, Integer birthMonth, Integer birthDay,
     Boolean isLiving, Integer deathYear, Integer deathMonth, Integer deathDay,
     String notes, Integer motherID, Integer fatherID) {
-        this.editNames(person, nameFirst, nameMiddles, nameLast);
-        this.editSex(person, isMale);
-        this.editDOB(person, birthYear, birthMonth, birthDay);
-        this.editDOD(person, isLiving, deathYear, deathMonth, deathDay);
-        this.editNotes(person, notes);
-        this.link(person, motherID, fatherID);
+
+        // if one of these fails, the ones before it have still been applied
+        // so the journal records whatever state the person was left in
+        try {
+            this.setNames(person, nameFirst, nameMiddles, nameLast);
+            this.setSex(person, isMale);
+            this.setDOB(person, birthYear, birthMonth, birthDay);
+            this.setDOD(person, isLiving, deathYear, deathMonth, deathDay);
+            person.setNotes(notes);
+            this.checkParents(person, motherID, fatherID);
+            this.relink(person, motherID, fatherID);
+        } finally {
+            this.recordChange(Journal.EDIT, person.toFile());
+        }
     }
 
-    public void editNames(int ID, String nameFirst, String nameMiddles, String nameLast) {
+    public synchronized void editNames(int ID, String nameFirst, String nameMiddles, String nameLast) {
         this.editNames(this.findAssert(ID), nameFirst, nameMiddles, nameLast);
     }
 
-    public void editNames(Person person, String nameFirst, String nameMiddles, String nameLast) {
+    public synchronized void editNames(Person person, String nameFirst, String nameMiddles, String nameLast) {
+        try {
+            this.setNames(person, nameFirst, nameMiddles, nameLast);
+        } finally {
+            this.recordChange(Journal.EDIT, person.toFile());
+        }
+    }
+
+    private void setNames(Person person, String nameFirst, String nameMiddles, String nameLast) {
         person.setNameFirst(nameFirst);
         person.setNameMiddles(nameMiddles);
         person.setNameLast(nameLast);
     }
 
-    public void editSex(int ID, Boolean isMale) {
+    public synchronized void editSex(int ID, Boolean isMale) {
         this.editSex(this.findAssert(ID), isMale);
     }
 
-    public void editSex(Person person, Boolean isMale) {
-        for (Person current: this.peopleByID) {
-            Integer mID = current.getMotherID();
-            Integer fID = current.getFatherID();
-            if (mID != null && mID.equals(person.getID()) && (isMale == null || isMale)) {
-                // current.setMotherID(null);
+    public synchronized void editSex(Person person, Boolean isMale) {
+        this.setSex(person, isMale);
+        this.recordChange(Journal.EDIT, person.toFile());
+    }
+
+    /**
+     * Only the person's children can have them as a parent so only they need
+     * checking rather than everyone
+     */
+    private void setSex(Person person, Boolean isMale) {
+        for (int i = 0; i < person.getNumChildren(); i++) {
+            Person child = this.find(person.getChildID(i));
+            if (this.isMotherOf(person, child) && (isMale == null || isMale)) {
                 throw new IllegalArgumentException("Cannot edit the sex of someone who is the mother of someone else so they are no longer female");
             }
-            if (fID != null && fID.equals(person.getID()) && (isMale == null || !isMale)) {
-                // current.setFatherID(null);
+            if (this.isFatherOf(person, child) && (isMale == null || !isMale)) {
                 throw new IllegalArgumentException("Cannot edit the sex of someone who is the father of someone else so they are no longer male");
             }
         }
         person.setIsMale(isMale);
     }
 
-    public void editDOB(int ID, Integer birthYear, Integer birthMonth, Integer birthDay) {
+    public synchronized void editDOB(int ID, Integer birthYear, Integer birthMonth, Integer birthDay) {
         this.editDOB(this.findAssert(ID), birthYear, birthMonth, birthDay);
         
     }
 
-    public void editDOB(Person person, Integer birthYear, Integer birthMonth, Integer birthDay) {
-        person.setBirthYear(birthYear);
-        person.setBirthMonth(birthMonth);
-        person.setBirthDay(birthDay);
+    public synchronized void editDOB(Person person, Integer birthYear, Integer birthMonth, Integer birthDay) {
+        try {
+            this.setDOB(person, birthYear, birthMonth, birthDay);
+        } finally {
+            this.recordChange(Journal.EDIT, person.toFile());
+        }
+    }
+
+    /**
+     * The person's birthday bucket depends on their date of birth so take
+     * them out while it changes and put them back after
+     */
+    private void setDOB(Person person, Integer birthYear, Integer birthMonth, Integer birthDay) {
+        this.removeBirthday(person);
+        try {
+            person.setBirthYear(birthYear);
+            person.setBirthMonth(birthMonth);
+            person.setBirthDay(birthDay);
+        } finally {
+            this.addBirthday(person);
+        }
     }
 
-    public void editDOD(int ID, Boolean isLiving, Integer deathYear, Integer deathMonth, Integer deathDay) {
+    public synchronized void editDOD(int ID, Boolean isLiving, Integer deathYear, Integer deathMonth, Integer deathDay) {
         this.editDOD(this.findAssert(ID), isLiving, deathYear, deathMonth, deathDay);
     }
 
-    public void editDOD(Person person, Boolean isLiving, Integer deathYear, Integer deathMonth, Integer deathDay) {
-        person.setIsLiving(isLiving);
-        person.setDeathYear(deathYear);
-        person.setDeathMonth(deathMonth);
-        person.setDeathDay(deathDay);
+    public synchronized void editDOD(Person person, Boolean isLiving, Integer deathYear, Integer deathMonth, Integer deathDay) {
+        try {
+            this.setDOD(person, isLiving, deathYear, deathMonth, deathDay);
+        } finally {
+            this.recordChange(Journal.EDIT, person.toFile());
+        }
+    }
+
+    /**
+     * Whether the person is in the birthdays of living people depends on
+     * whether they are living so take them out while it changes and put them
+     * back after
+     */
+    private void setDOD(Person person, Boolean isLiving, Integer deathYear, Integer deathMonth, Integer deathDay) {
+        this.livingByBirthday.remove(person);
+        try {
+            person.setIsLiving(isLiving);
+            person.setDeathYear(deathYear);
+            person.setDeathMonth(deathMonth);
+            person.setDeathDay(deathDay);
+        } finally {
+            if (isLiving(person)) {
+                this.livingByBirthday.add(person);
+            }
+        }
+    }
+
+    private static boolean isLiving(Person person) {
+        return person.getIsLiving() != null && person.getIsLiving();
+    }
+
+    /**
+     * Add the given person to the birthdays of everyone and of living people
+     * if they are living
+     */
+    private void addBirthday(Person person) {
+        this.peopleByBirthday.add(person);
+        if (isLiving(person)) {
+            this.livingByBirthday.add(person);
+        }
     }
 
-    public void editNotes(int ID, String notes) {
+    private void removeBirthday(Person person) {
+        this.peopleByBirthday.remove(person);
+        this.livingByBirthday.remove(person);
+    }
+
+    public synchronized void editNotes(int ID, String notes) {
         this.editNotes(this.findAssert(ID), notes);
     }
 
-    public void editNotes(Person person, String notes) {
+    public synchronized void editNotes(Person person, String notes) {
         person.setNotes(notes);
+        this.recordChange(Journal.EDIT, person.toFile());
+    }
+
+    /**
+     * Add the given person to the store, their ID must already be claimed
+     */
+    private void insert(Person person) {
+        person.useChildIndex(this.childIndex);
+        this.peopleByID.put(person);
+        this.addBirthday(person);
+        this.descendantCounts.set(person.getID(), 0);
+        if (this.ancestorIndex != null) {
+            this.ancestorIndex.add(person);
+        }
+        this.familyGroups.add(person);
+    }
+
+    /**
+     * Remove the person with the given ID from the store and from the
+     * children of their parents. Their ID is not reused until the people are
+     * next read.
+     */
+    private void remove(int ID) {
+        Person person = this.find(ID);
+        if (person == null) {
+            return;
+        }
+        this.relink(person, null, null);
+        this.relativesIndex.remove(person);
+        this.familyGroups.split();
+        int[] childrenIDs = person.getChildrenIDs();
+        this.childIndex.clear(ID);
+        this.descendantCounts.remove(ID);
+        this.kinshipCalculator.invalidate();
+        this.peopleByID.remove(ID);
+        if (this.ancestorIndex != null) {
+            this.ancestorIndex.remove(ID);
+        }
+
+        // any children left, only when deleting them too, now have no
+        // parent here so may be at the top of the tree
+        for (int childID: childrenIDs) {
+            Person child = this.find(childID);
+            if (child != null) {
+                this.updateTop(child);
+                if (this.ancestorIndex != null) {
+                    this.ancestorIndex.update(child);
+                }
+            }
+        }
+        this.removeBirthday(person);
+    }
+
+    /**
+     * Mark the given ID as used so it is not given to a new person.
+     * Return false if it was already used.
+     */
+    private boolean claimID(int ID) {
+        if (ID == this.nextID) {
+            this.nextID++;
+        } else if (ID > this.nextID) {
+            for (int i = this.nextID; i < ID; i++) {
+                this.unusedIDs.add(i);
+            }
+            this.nextID = ID + 1;
+        } else if (!this.unusedIDs.remove(ID)) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Start recording every change in a journal alongside the file so that
+     * `save` only has to append the changes rather than write everyone.
+     * The journal is folded back into the file in the background once it
+     * gets long and whenever `write` is called.
+     */
+    public synchronized void useJournal() throws IOException {
+        if (this.writeBehind != null) {
+            throw new IllegalStateException("Cannot use a journal and write behind together");
+        }
+        if (this.journal == null) {
+            this.journal = new Journal(Journal.pathFor(this.filename));
+        }
+    }
+
+    /**
+     * Keep everyone's ancestors in an index so whether someone is an
+     * ancestor of someone else and who two people have in common are found
+     * without walking up through parents. It is kept up to date as links
+     * change but needs memory for every ancestor of everyone.
+     */
+    public synchronized void useAncestorIndex() {
+        if (this.ancestorIndex == null) {
+            this.ancestorIndex = new AncestorIndex(this);
+            this.ancestorIndex.build();
+        }
+    }
+
+    /**
+     * Start writing changes in the background so that all changes made within
+     * the given number of milliseconds of each other are saved by a single
+     * write of the file. `save` then waits until a write including all changes
+     * made so far has finished rather than writing itself.
+     */
+    public synchronized void useWriteBehind(long windowMillis) {
+        if (this.journal != null) {
+            throw new IllegalStateException("Cannot use a journal and write behind together");
+        }
+        if (this.writeBehind == null) {
+            this.writeBehind = new WriteBehind(this, windowMillis);
+            this.writeBehind.start();
+        }
+    }
+
+    /**
+     * Record that a change has been made by appending it to the journal if
+     * one is being used and marking that it needs writing if writing behind
+     */
+    private void recordChange(String type, String contents) {
+        if (this.journal != null) {
+            try {
+                this.journal.append(type, contents);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        if (this.writeBehind != null) {
+            this.writeBehind.changed();
+        }
+    }
+
+    /**
+     * Make sure all changes so far are saved. If a journal is being used,
+     * this only forces the journal to disk and starts compacting it in the
+     * background if it is long, throwing if the last compaction failed so
+     * the journal doesn't keep growing unnoticed. If writing behind, this
+     * waits for the background write that includes them. Otherwise the
+     * whole file is written.
+     */
+    public void save() throws IOException {
+        WriteBehind writeBehind;
+        synchronized (this) {
+            writeBehind = this.writeBehind;
+            if (writeBehind == null) {
+                this.saveNow();
+                return;
+            }
+        }
+
+        // wait without holding the lock so the writer can write
+        writeBehind.awaitWritten();
+    }
+
+    private synchronized void saveNow() throws IOException {
+        if (this.journal == null) {
+            this.write();
+            return;
+        }
+
+        this.journal.sync();
+
+        // the changes are safe in the journal but it will keep growing
+        if (this.compactFailure != null) {
+            IOException failure = this.compactFailure;
+            this.compactFailure = null;
+            throw new IOException("Failed to fold the journal into the file", failure);
+        }
+
+        if (this.journal.getNumRecords() >= COMPACT_JOURNAL_AFTER && !this.compacting) {
+            this.compacting = true;
+            Thread compactor = new Thread(this::compact, "Journal compactor");
+            compactor.setDaemon(true);
+            compactor.start();
+        }
+    }
+
+    /**
+     * Fold the journal back into the file. Changes made meanwhile wait until
+     * it has finished. If it fails, the next save throws why and tries again.
+     */
+    private void compact() {
+        synchronized (this) {
+            try {
+                this.write();
+            } catch (IOException e) {
+                this.compactFailure = e;
+            } finally {
+                this.compacting = false;
+            }
+        }
+    }
+
+    private static String optionalIDToFile(Integer ID) {
+        return ID == null ? "" : ID.toString();
     }
 
     /**
      * Read all people from the file and get the next IDs to use for new people
+     * then apply any changes recorded in the journal since it was written
      * Only called in the constructor
      */
     private void read() throws IOException, DataFormatException {
 
-        this.peopleByID = new TreeSet<>();
-        this.peopleByDaysUntilBirthday = new TreeSet<>(comparatorDaysUntilBirthday);
+        this.peopleByID = new PersonIndex();
+        this.childIndex = new ChildIndex();
+        this.descendantCounts = new DescendantCounts();
+        this.relationshipFinder = new RelationshipFinder(this);
+        this.pathFinder = new PathFinder(this);
+        this.kinshipCalculator = new KinshipCalculator(this);
+        this.relativesIndex = new RelativesIndex(this);
+        this.familyGroups = new FamilyGroups(this);
+        this.peopleByBirthday = new BirthdayIndex();
+        this.livingByBirthday = new BirthdayIndex();
         this.unusedIDs = new TreeSet<>();
         this.nextID = 1;
-        this.dateLastUpdatedPeopleByDaysUntilBirthday = LocalDate.now();
 
-        MultiMap<Integer, Integer> childrenToAdd = new MultiMap<>();
+        this.readFile();
+        this.countAllDescendants();
+
+        for (String record: Journal.readRecords(Journal.pathFor(this.filename))) {
+            this.replay(record);
+        }
+    }
+
+    /**
+     * Read all people from the binary snapshot if it is up to date, otherwise
+     * from the file in parallel then add everyone to their parents' children
+     * in a single pass once they have all been read
+     */
+    private void readFile() throws IOException, DataFormatException {
+
+        ArrayList<Person> people = null;
+        boolean fromSnapshot = false;
+        Path snapshot = BinarySnapshot.pathFor(this.filename);
+        if (BinarySnapshot.isFresh(snapshot, Path.of(this.filename))) {
+            try {
+                people = BinarySnapshot.read(snapshot, this.childIndex);
+                fromSnapshot = people != null;
+            } catch (IOException | DataFormatException | IllegalArgumentException e) {
+                System.err.println("Ignoring unreadable snapshot of people: " + e);
+            }
+        }
+
+        if (!fromSnapshot) {
+            people = CSVLoader.load(Path.of(this.filename));
+        }
 
         // If no file, return with no people saved
-        BufferedReader br;
-        try {
-            br = new BufferedReader(new FileReader(FILENAME));
-        } catch (FileNotFoundException e) {
+        if (people == null) {
             return;
         }
 
-        String line;
+        for (Person person: people) {
+            if (!this.claimID(person.getID())) {
+                throw new DataFormatException("Repeated ID");
+            }
+            this.insert(person);
+        }
 
-        // skip the header
-        br.readLine();
+        // the snapshot already has everyone's children, otherwise find them
+        // all from their parents at once
+        if (!fromSnapshot) {
+            this.childIndex.build(people);
+        }
 
-        int currentID = 0;
+        // links are checked when made but the file may have been edited
+        int[] generations = this.generations();
+        for (Person person: people) {
+            if (generations[person.getID()] == Integer.MAX_VALUE) {
+                throw new DataFormatException("Someone is their own ancestor");
+            }
+        }
+    }
 
-        while ((line = br.readLine()) != null) {
-            if (!("".equals(line))) {
-                String[] fields = line.split(",", -1);
+    /**
+     * Return how many generations below the top of the tree everyone is,
+     * indexed by ID, or `Integer.MAX_VALUE` for anyone who is their own
+     * ancestor or below someone who is. Goes down from the top of the tree
+     * only giving someone a generation once all their known parents have
+     * one, so it takes time proportional to the number of people.
+     */
+    int[] generations() {
+        int bound = this.nextID;
+        int[] generations = new int[bound];
+        int[] parentsLeft = new int[bound];
+        int[] queue = new int[bound];
+        int head = 0;
+        int tail = 0;
 
-                if (fields.length != 15) {
-                    br.close();
-                    throw new DataFormatException("Must be 15 fields per line");
-                }
+        for (Person person: this.peopleByID) {
+            int ID = person.getID();
+            if (this.getMother(person) != null) {
+                parentsLeft[ID]++;
+            }
+            if (this.getFather(person) != null) {
+                parentsLeft[ID]++;
+            }
+            if (parentsLeft[ID] == 0) {
+                queue[tail++] = ID;
+            }
+        }
 
-                currentID = Integer.parseInt(fields[0]);
-
-                Person person = new Person(
-                    currentID,
-                    Util.URLDecode(fields[1]),
-                    Util.URLDecode(fields[2]),
-                    Util.URLDecode(fields[3]),
-                    "".equals(fields[4]) ? null : Boolean.parseBoolean(fields[4]),
-                    "".equals(fields[5]) ? null : Integer.parseInt(fields[5]),
-                    "".equals(fields[6]) ? null : Integer.parseInt(fields[6]),
-                    "".equals(fields[7]) ? null : Integer.parseInt(fields[7]),
-                    "".equals(fields[8]) ? null : Boolean.parseBoolean(fields[8]),
-                    "".equals(fields[9]) ? null : Integer.parseInt(fields[9]),
-                    "".equals(fields[10]) ? null : Integer.parseInt(fields[10]),
-                    "".equals(fields[11]) ? null : Integer.parseInt(fields[11]),
-                    Util.URLDecode(fields[14]),
-                    "".equals(fields[12]) ? null : Integer.parseInt(fields[12]),
-                    "".equals(fields[13]) ? null : Integer.parseInt(fields[13])
-                );
-
-                // START adding children
-
-                if (person.getMotherID() != null) {
-                    Person mother = this.find(person.getMotherID());
-
-                    // if the current person's mother is saved but they haven't
-                    // been processed yet, add them to the multimap so the current
-                    // person is saved as their child when they are processed
-                    if (mother == null) {
-                        childrenToAdd.add(person.getMotherID(), currentID);
-
-                    // if the current person's mother has already been processed,
-                    // add the current person as their child
-                    } else {
-                        mother.addChild(currentID);
-                    }
+        while (head < tail) {
+            int ID = queue[head++];
+            Person person = this.find(ID);
+            int numChildren = person.getNumChildren();
+            for (int i = 0; i < numChildren; i++) {
+                int childID = person.getChildID(i);
+                generations[childID] = Math.max(generations[childID], generations[ID] + 1);
+                if (--parentsLeft[childID] == 0) {
+                    queue[tail++] = childID;
                 }
+            }
+        }
 
-                if (person.getFatherID() != null) {
-                    Person father = this.find(person.getFatherID());
-
-                    // if the current person's father is saved but they haven't
-                    // been processed yet, add them to the multimap so the current
-                    // person is saved as their child when they are processed
-                    if (father == null) {
-                        childrenToAdd.add(person.getFatherID(), currentID);
+        // anyone left never had all their parents reached
+        for (int ID = 0; ID < bound; ID++) {
+            if (parentsLeft[ID] > 0) {
+                generations[ID] = Integer.MAX_VALUE;
+            }
+        }
+        return generations;
+    }
 
-                    // if the current person's father has already been processed,
-                    // add the current person as their child
-                    } else {
-                        father.addChild(currentID);
-                    }
+    /**
+     * Apply a record from the journal. Records set state directly without
+     * the checks made when the change was first made since they passed then.
+     */
+    private void replay(String record) throws DataFormatException {
+        String[] typeAndContents = record.split(",", 2);
+        if (typeAndContents.length != 2) {
+            throw new DataFormatException("Journal record must have a type");
+        }
+        String contents = typeAndContents[1];
+
+        switch (typeAndContents[0]) {
+            case Journal.ADD:
+            case Journal.EDIT: {
+                Person replacement = Person.fromFile(contents);
+                Person person = this.find(replacement.getID());
+                if (person == null) {
+                    this.claimID(replacement.getID());
+                    this.insert(replacement);
+
+                    // clear their parents so relinking below adds them to
+                    // their parents' children
+                    this.relink(replacement, null, null);
+                    person = replacement;
+                } else {
+                    person.setNameFirst(replacement.getNameFirst());
+                    person.setNameMiddles(replacement.getNameMiddles());
+                    person.setNameLast(replacement.getNameLast());
+                    person.setIsMale(replacement.getIsMale());
+                    this.setDOB(person, replacement.getBirthYear(), replacement.getBirthMonth(), replacement.getBirthDay());
+                    this.setDOD(person, replacement.getIsLiving(), replacement.getDeathYear(), replacement.getDeathMonth(), replacement.getDeathDay());
+                    person.setNotes(replacement.getNotes());
                 }
-
-                // any children of the current person that were processed
-                // before now are added to the current person
-                HashSet<Integer> childrenIDs = childrenToAdd.getAll(currentID);
-                if (childrenIDs != null) {
-                    for (Integer childID: childrenIDs) {
-                        person.addChild(childID);
-                    }
-                    childrenToAdd.remove(currentID);
+                this.relink(person, replacement.getMotherID(), replacement.getFatherID());
+                break;
+            }
+            case Journal.LINK: {
+                String[] fields = contents.split(",", -1);
+                if (fields.length != 3) {
+                    throw new DataFormatException("Journal link record must have 3 fields");
+                }
+                Person person = this.find(Integer.parseInt(fields[0]));
+                if (person != null) {
+                    this.relink(person,
+                        "".equals(fields[1]) ? null : Integer.parseInt(fields[1]),
+                        "".equals(fields[2]) ? null : Integer.parseInt(fields[2]));
                 }
+                break;
+            }
+            case Journal.DELETE:
+                this.remove(Integer.parseInt(contents));
+                break;
+            default:
+                throw new DataFormatException("Unknown journal record type");
+        }
+    }
 
-                // END adding children
+    /**
+     * Write all stored people to the file
+     * Must be called in order to save data unless `save` is used
+     * The file is written to a temporary file first which then replaces the
+     * old one so it is never left half written. Both the file and the
+     * directory it is moved into are forced to disk before returning so the
+     * changes survive a crash or power cut. A binary snapshot of everyone
+     * is then written alongside it to read quickly next time. Any journal is
+     * then emptied since the file contains all the changes it recorded.
+     */
+    public synchronized void write() throws IOException {
+        Path path = Path.of(this.filename).toAbsolutePath();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            this.write(new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8)));
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(path.getParent());
+        BinarySnapshot.write(BinarySnapshot.pathFor(this.filename), path, this.peopleByID);
 
-                this.peopleByID.add(person);
-                this.peopleByDaysUntilBirthday.add(person);
+        this.numWrites++;
 
-                if (currentID == this.nextID) {
-                    this.nextID++;
-                } else if (currentID > this.nextID) {
-                    for (int i = this.nextID; i < currentID; i++) {
-                        this.unusedIDs.add(i);
-                    }
-                    this.nextID = currentID + 1;
-                } else if (this.unusedIDs.contains(currentID)) {
-                    this.unusedIDs.remove(currentID);
-                } else {
-                    br.close();
-                    throw new DataFormatException("Repeated ID");
-                }
-            }
+        // only now the file is on disk can the changes leave the journal
+        if (this.journal == null) {
+            Journal.delete(Journal.pathFor(this.filename));
+        } else {
+            this.journal.truncate();
         }
+    }
 
-        br.close();
+    /**
+     * Return how many times the whole file has been written by this store
+     */
+    public synchronized int getNumWrites() {
+        return this.numWrites;
     }
 
     /**
-     * Write all stored people to the file
-     * Must be called in order to save data
+     * Force the given directory to disk so a file just moved into it is
+     * still there after a crash. Some systems such as Windows can't open a
+     * directory to force it, in which case it is left to the file system.
+     */
+    private static void forceDirectory(Path directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Write all stored people to the given writer in the file format.
+     * Each person is encoded straight into the writer one at a time so the
+     * time taken is linear in the number of people and the whole file is
+     * never held in memory. The writer is flushed but not closed.
      */
-    public void write() throws IOException {
-        String contents = HEADINGS;
+    public synchronized void write(Writer writer) throws IOException {
+        writer.write(HEADINGS);
 
         for (Person person: this.peopleByID) {
-            contents += System.lineSeparator() + person.toFile();
+            writer.write(System.lineSeparator());
+            person.toFile(writer);
         }
 
-        FileWriter fileWriter = new FileWriter(FILENAME);
-        fileWriter.write(contents);
-        fileWriter.close();
+        writer.flush();
     }
-}
\ No newline at end of file
+}
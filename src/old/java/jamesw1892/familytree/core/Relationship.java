@@ -0,0 +1,127 @@
+package core;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How a relative is related by blood to a person, found from their most
+ * recent common ancestors and how many generations each of them is below
+ * those ancestors. If either is an ancestor of the other, they are their own
+ * most recent common ancestor.
+ */
+public class Relationship {
+    private static final String[] ORDINALS = {"first", "second", "third", "fourth", "fifth", "sixth", "seventh", "eighth", "ninth", "tenth"};
+
+    private final Person person;
+    private final Person relative;
+    private final List<Person> commonAncestors;
+    private final int generationsFromPerson;
+    private final int generationsFromRelative;
+    private final boolean half;
+
+    /**
+     * @param commonAncestors The most recent common ancestors, empty if the
+     * two aren't related by blood
+     * @param generationsFromPerson How many generations the person is below
+     * the common ancestors
+     * @param generationsFromRelative How many generations the relative is
+     * below the common ancestors
+     * @param half Whether they are only related through one of the two
+     * known parents of the children they descend from
+     */
+    Relationship(Person person, Person relative, List<Person> commonAncestors, int generationsFromPerson, int generationsFromRelative, boolean half) {
+        this.person = person;
+        this.relative = relative;
+        this.commonAncestors = Collections.unmodifiableList(commonAncestors);
+        this.generationsFromPerson = generationsFromPerson;
+        this.generationsFromRelative = generationsFromRelative;
+        this.half = half;
+    }
+
+    public Person getPerson()                   { return this.person; }
+    public Person getRelative()                 { return this.relative; }
+    public List<Person> getCommonAncestors()    { return this.commonAncestors; }
+    public int getGenerationsFromPerson()       { return this.generationsFromPerson; }
+    public int getGenerationsFromRelative()     { return this.generationsFromRelative; }
+    public boolean isHalf()                     { return this.half; }
+
+    public boolean isRelated() {
+        return !this.commonAncestors.isEmpty();
+    }
+
+    /**
+     * Return what the relative is to the person, such as "grandmother" or
+     * "second cousin once removed"
+     */
+    public String describe() {
+        if (!this.isRelated()) {
+            return "not related by blood";
+        }
+
+        int up = this.generationsFromPerson;
+        int down = this.generationsFromRelative;
+        Boolean isMale = this.relative.getIsMale();
+
+        // one is an ancestor of the other
+        if (up == 0 && down == 0) {
+            return "the same person";
+        }
+        if (up == 0) {
+            return grand(down - 1) + sexed(isMale, "son", "daughter", "child");
+        }
+        if (down == 0) {
+            return grand(up - 1) + sexed(isMale, "father", "mother", "parent");
+        }
+
+        // only related through one of two known parents, otherwise the
+        // other parent may be shared too
+        String half = this.half ? "half-" : "";
+
+        if (up == 1 && down == 1) {
+            return half + sexed(isMale, "brother", "sister", "sibling");
+        }
+        if (up == 1) {
+            return half + grand(down - 2) + sexed(isMale, "nephew", "niece", "niece or nephew");
+        }
+        if (down == 1) {
+            return half + grand(up - 2) + sexed(isMale, "uncle", "aunt", "aunt or uncle");
+        }
+
+        int degree = Math.min(up, down) - 1;
+        int removed = Math.abs(up - down);
+        String out = half + ordinal(degree) + " cousin";
+        if (removed == 1) {
+            out += " once removed";
+        } else if (removed == 2) {
+            out += " twice removed";
+        } else if (removed > 2) {
+            out += " " + removed + " times removed";
+        }
+        return out;
+    }
+
+    /**
+     * Return the prefix for the given number of generations beyond a parent
+     * or child such as "grand" or "great-grand"
+     */
+    private static String grand(int generations) {
+        if (generations == 0) {
+            return "";
+        }
+        return "great-".repeat(generations - 1) + "grand";
+    }
+
+    private static String sexed(Boolean isMale, String male, String female, String unknown) {
+        if (isMale == null) {
+            return unknown;
+        }
+        return isMale ? male : female;
+    }
+
+    private static String ordinal(int n) {
+        if (n <= ORDINALS.length) {
+            return ORDINALS[n - 1];
+        }
+        return n + Util.numberSuffix(n);
+    }
+}
@@ -0,0 +1,245 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Finds how two people are related by going up through the ancestors of
+ * each in breadth first order. Everyone has two parents so the ancestors
+ * form a graph rather than a single line and the nearest common ancestors
+ * can't be found by jumping up a single line of parents. Instead the
+ * generations up to each ancestor of the first person are recorded, then the
+ * ancestors of the second are searched nearest first, stopping once they are
+ * further than the nearest common ancestor found so far.
+ *
+ * This only looks at the two people's ancestors, however many people are
+ * stored. The generations are recorded in arrays indexed by ID that are kept
+ * between searches, with a stamp per entry saying which search wrote it so
+ * they never need clearing.
+ */
+class RelationshipFinder {
+    private final PersonStore personStore;
+    private int stamp;
+    private int[] stampsFromPerson;
+    private int[] generationsFromPerson;
+    private int[] stampsFromRelative;
+    private int[] generationsFromRelative;
+    private int[] queue;
+
+    RelationshipFinder(PersonStore personStore) {
+        this.personStore = personStore;
+        this.stamp = 0;
+        this.stampsFromPerson = new int[0];
+        this.generationsFromPerson = new int[0];
+        this.stampsFromRelative = new int[0];
+        this.generationsFromRelative = new int[0];
+        this.queue = new int[16];
+    }
+
+    /**
+     * Return how the given relative is related to the given person
+     */
+    Relationship find(Person person, Person relative) {
+        this.start();
+
+        // record how many generations up each of the person's ancestors is
+        this.stampsFromPerson[person.getID()] = this.stamp;
+        this.generationsFromPerson[person.getID()] = 0;
+        int head = 0;
+        int tail = 0;
+        this.queue[tail++] = person.getID();
+        while (head < tail) {
+            int ID = this.queue[head++];
+            for (Person parent: this.parents(ID)) {
+                if (parent != null && this.stampsFromPerson[parent.getID()] != this.stamp) {
+                    this.stampsFromPerson[parent.getID()] = this.stamp;
+                    this.generationsFromPerson[parent.getID()] = this.generationsFromPerson[ID] + 1;
+                    tail = this.enqueue(tail, parent.getID());
+                }
+            }
+        }
+
+        // go up from the relative a generation at a time until it can't get
+        // any nearer, keeping the nearest common ancestors. Prefer fewer
+        // generations in total and then being in the same generation.
+        ArrayList<Person> nearest = new ArrayList<>();
+        int bestUp = 0;
+        int bestDown = 0;
+        head = 0;
+        tail = 0;
+        this.stampsFromRelative[relative.getID()] = this.stamp;
+        this.generationsFromRelative[relative.getID()] = 0;
+        this.queue[tail++] = relative.getID();
+        int generation = 0;
+        while (head < tail) {
+            if (!nearest.isEmpty() && generation > bestUp + bestDown) {
+                break;
+            }
+            int generationEnd = tail;
+            for (; head < generationEnd; head++) {
+                int ID = this.queue[head];
+                if (this.stampsFromPerson[ID] == this.stamp) {
+                    int up = this.generationsFromPerson[ID];
+                    int comparison = nearest.isEmpty() ? -1 : compare(up, generation, bestUp, bestDown);
+                    if (comparison < 0) {
+                        nearest.clear();
+                        bestUp = up;
+                        bestDown = generation;
+                    }
+                    if (comparison <= 0) {
+                        nearest.add(this.personStore.lookup(ID));
+                    }
+                }
+                for (Person parent: this.parents(ID)) {
+                    if (parent != null && this.stampsFromRelative[parent.getID()] != this.stamp) {
+                        this.stampsFromRelative[parent.getID()] = this.stamp;
+                        this.generationsFromRelative[parent.getID()] = generation + 1;
+                        tail = this.enqueue(tail, parent.getID());
+                    }
+                }
+            }
+            generation++;
+        }
+
+        boolean half = nearest.size() == 1 && bestUp > 0 && bestDown > 0
+            && this.parentsKnown(nearest.get(0), bestUp - 1, bestDown - 1);
+        return new Relationship(person, relative, nearest, bestUp, bestDown, half);
+    }
+
+    /**
+     * Return whether the children of the given common ancestor that the
+     * person and relative descend from, the given generations up from each,
+     * all have both parents known. Only then is sharing just one common
+     * ancestor known to mean they are half relatives rather than the other
+     * parent being unknown.
+     */
+    private boolean parentsKnown(Person ancestor, int up, int down) {
+        int numChildren = ancestor.getNumChildren();
+        for (int i = 0; i < numChildren; i++) {
+            int ID = ancestor.getChildID(i);
+            boolean onPersonSide = this.stampsFromPerson[ID] == this.stamp && this.generationsFromPerson[ID] == up;
+            boolean onRelativeSide = this.stampsFromRelative[ID] == this.stamp && this.generationsFromRelative[ID] == down;
+            if (onPersonSide || onRelativeSide) {
+                Person child = this.personStore.lookup(ID);
+                if (this.personStore.lookupMother(child) == null || this.personStore.lookupFather(child) == null) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return whether the given ancestor is one of the given person's
+     * ancestors, not counting themself, only searching up from the person
+     * until they are found
+     */
+    boolean isAncestor(Person ancestor, Person person) {
+        this.start();
+        int head = 0;
+        int tail = 0;
+        this.stampsFromRelative[person.getID()] = this.stamp;
+        this.queue[tail++] = person.getID();
+        while (head < tail) {
+            int ID = this.queue[head++];
+            if (ID == ancestor.getID() && ID != person.getID()) {
+                return true;
+            }
+            for (Person parent: this.parents(ID)) {
+                if (parent != null && this.stampsFromRelative[parent.getID()] != this.stamp) {
+                    this.stampsFromRelative[parent.getID()] = this.stamp;
+                    tail = this.enqueue(tail, parent.getID());
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the IDs of everyone who is an ancestor of both given people in
+     * order of ID, going through all the ancestors of each
+     */
+    int[] commonAncestors(Person person, Person relative) {
+        this.start();
+        int head = 0;
+        int tail = 0;
+        this.queue[tail++] = person.getID();
+        while (head < tail) {
+            for (Person parent: this.parents(this.queue[head++])) {
+                if (parent != null && this.stampsFromPerson[parent.getID()] != this.stamp) {
+                    this.stampsFromPerson[parent.getID()] = this.stamp;
+                    tail = this.enqueue(tail, parent.getID());
+                }
+            }
+        }
+
+        int[] common = new int[tail - 1];
+        int size = 0;
+        head = 0;
+        tail = 0;
+        this.queue[tail++] = relative.getID();
+        while (head < tail) {
+            for (Person parent: this.parents(this.queue[head++])) {
+                if (parent != null && this.stampsFromRelative[parent.getID()] != this.stamp) {
+                    this.stampsFromRelative[parent.getID()] = this.stamp;
+                    tail = this.enqueue(tail, parent.getID());
+                    if (this.stampsFromPerson[parent.getID()] == this.stamp) {
+                        common[size++] = parent.getID();
+                    }
+                }
+            }
+        }
+        common = Arrays.copyOf(common, size);
+        Arrays.sort(common);
+        return common;
+    }
+
+    /**
+     * Compare a common ancestor the given generations up from each person to
+     * the best so far, returning negative if it is nearer and 0 if it is
+     * the same generations up from each
+     */
+    private static int compare(int up, int down, int bestUp, int bestDown) {
+        int comparison = Integer.compare(up + down, bestUp + bestDown);
+        if (comparison != 0) {
+            return comparison;
+        }
+        comparison = Integer.compare(Math.abs(up - down), Math.abs(bestUp - bestDown));
+        if (comparison != 0) {
+            return comparison;
+        }
+        return Integer.compare(up, bestUp);
+    }
+
+    private Person[] parents(int ID) {
+        Person person = this.personStore.lookup(ID);
+        return new Person[] {this.personStore.lookupMother(person), this.personStore.lookupFather(person)};
+    }
+
+    private int enqueue(int tail, int ID) {
+        if (tail == this.queue.length) {
+            int[] bigger = new int[this.queue.length * 2];
+            System.arraycopy(this.queue, 0, bigger, 0, tail);
+            this.queue = bigger;
+        }
+        this.queue[tail] = ID;
+        return tail + 1;
+    }
+
+    /**
+     * Start a new search with a new stamp, making the arrays big enough for
+     * everyone stored
+     */
+    private void start() {
+        int size = this.personStore.getIDBound();
+        if (this.stampsFromPerson.length < size || this.stamp == Integer.MAX_VALUE) {
+            size = Math.max(size, this.stampsFromPerson.length * 2);
+            this.stampsFromPerson = new int[size];
+            this.generationsFromPerson = new int[size];
+            this.stampsFromRelative = new int[size];
+            this.generationsFromRelative = new int[size];
+            this.stamp = 0;
+        }
+        this.stamp++;
+    }
+}
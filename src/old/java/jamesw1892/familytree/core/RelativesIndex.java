@@ -0,0 +1,202 @@
+package core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Everyone's siblings and partners, worked out from their parents and
+ * children the first time they are asked for and kept until a link changes
+ * them. A person's siblings only change when their own parents change or
+ * their parents gain or lose children, and their partners only change when
+ * their children's parents change, so a link only forgets the relatives of
+ * the people around it.
+ *
+ * Each set is unmodifiable and in order of ID, and is replaced rather than
+ * changed so it can be kept and looked through while links change.
+ */
+class RelativesIndex {
+
+    /**
+     * The relatives of one person, each null until worked out
+     */
+    private static class Relatives {
+        private Set<Person> fullSiblings;
+        private Set<Person> halfSiblings;
+        private Set<Person> siblings;
+        private Set<Person> partners;
+    }
+
+    private final PersonStore personStore;
+    private Relatives[] byID;
+
+    RelativesIndex(PersonStore personStore) {
+        this.personStore = personStore;
+        this.byID = new Relatives[16];
+    }
+
+    /**
+     * Return the people with the same mother and father as the given person,
+     * both known
+     */
+    Set<Person> fullSiblings(Person person) {
+        Relatives relatives = this.get(person);
+        if (relatives.fullSiblings == null) {
+            this.computeSiblings(person, relatives);
+        }
+        return relatives.fullSiblings;
+    }
+
+    /**
+     * Return the people with only one known parent the same as the given
+     * person
+     */
+    Set<Person> halfSiblings(Person person) {
+        Relatives relatives = this.get(person);
+        if (relatives.halfSiblings == null) {
+            this.computeSiblings(person, relatives);
+        }
+        return relatives.halfSiblings;
+    }
+
+    /**
+     * Return the full and half siblings of the given person together
+     */
+    Set<Person> siblings(Person person) {
+        Relatives relatives = this.get(person);
+        if (relatives.siblings == null) {
+            this.computeSiblings(person, relatives);
+        }
+        return relatives.siblings;
+    }
+
+    /**
+     * Return the people who have children with the given person
+     */
+    Set<Person> partners(Person person) {
+        Relatives relatives = this.get(person);
+        if (relatives.partners == null) {
+            TreeSet<Integer> IDs = new TreeSet<>();
+            int numChildren = person.getNumChildren();
+            for (int i = 0; i < numChildren; i++) {
+                Person child = this.personStore.lookup(person.getChildID(i));
+                this.addIfOther(IDs, person, this.personStore.lookupMother(child));
+                this.addIfOther(IDs, person, this.personStore.lookupFather(child));
+            }
+            relatives.partners = this.toSet(IDs);
+        }
+        return relatives.partners;
+    }
+
+    /**
+     * Forget the relatives that change when the given person's parents
+     * change from the given old ones to the given new ones, any of which may
+     * be null. Must be called once the change has been made.
+     */
+    void linkChanged(Person person, Person oldMother, Person oldFather, Person newMother, Person newFather) {
+        this.forgetSiblings(person.getID());
+        for (Person parent: new Person[] {oldMother, oldFather, newMother, newFather}) {
+            if (parent != null) {
+                this.forgetPartners(parent.getID());
+                this.forgetSiblingsOfChildren(parent);
+            }
+        }
+    }
+
+    /**
+     * Forget the given person and the relatives that change when they are
+     * no longer stored, once they have no parents
+     */
+    void remove(Person person) {
+        this.forgetSiblingsOfChildren(person);
+        for (int childID: person.getChildrenIDs()) {
+            Person child = this.personStore.lookup(childID);
+            for (Person parent: new Person[] {this.personStore.lookupMother(child), this.personStore.lookupFather(child)}) {
+                if (parent != null) {
+                    this.forgetPartners(parent.getID());
+                }
+            }
+        }
+        if (person.getID() < this.byID.length) {
+            this.byID[person.getID()] = null;
+        }
+    }
+
+    private void computeSiblings(Person person, Relatives relatives) {
+        Person mother = this.personStore.lookupMother(person);
+        Person father = this.personStore.lookupFather(person);
+        TreeSet<Integer> full = new TreeSet<>();
+        TreeSet<Integer> half = new TreeSet<>();
+        for (Person parent: new Person[] {mother, father}) {
+            if (parent == null) {
+                continue;
+            }
+            int numChildren = parent.getNumChildren();
+            for (int i = 0; i < numChildren; i++) {
+                Person child = this.personStore.lookup(parent.getChildID(i));
+                if (child == person) {
+                    continue;
+                }
+                boolean isFull = mother != null && father != null
+                    && this.personStore.lookupMother(child) == mother && this.personStore.lookupFather(child) == father;
+                (isFull ? full : half).add(child.getID());
+            }
+        }
+        TreeSet<Integer> all = new TreeSet<>(full);
+        all.addAll(half);
+        relatives.fullSiblings = this.toSet(full);
+        relatives.halfSiblings = this.toSet(half);
+        relatives.siblings = this.toSet(all);
+    }
+
+    private void addIfOther(TreeSet<Integer> IDs, Person person, Person other) {
+        if (other != null && other != person) {
+            IDs.add(other.getID());
+        }
+    }
+
+    private Set<Person> toSet(TreeSet<Integer> IDs) {
+        if (IDs.isEmpty()) {
+            return Collections.emptySet();
+        }
+        LinkedHashSet<Person> people = new LinkedHashSet<>();
+        for (int ID: IDs) {
+            people.add(this.personStore.lookup(ID));
+        }
+        return Collections.unmodifiableSet(people);
+    }
+
+    private void forgetSiblingsOfChildren(Person parent) {
+        int numChildren = parent.getNumChildren();
+        for (int i = 0; i < numChildren; i++) {
+            this.forgetSiblings(parent.getChildID(i));
+        }
+    }
+
+    private void forgetSiblings(int ID) {
+        if (ID < this.byID.length && this.byID[ID] != null) {
+            this.byID[ID].fullSiblings = null;
+            this.byID[ID].halfSiblings = null;
+            this.byID[ID].siblings = null;
+        }
+    }
+
+    private void forgetPartners(int ID) {
+        if (ID < this.byID.length && this.byID[ID] != null) {
+            this.byID[ID].partners = null;
+        }
+    }
+
+    private Relatives get(Person person) {
+        int ID = person.getID();
+        if (ID >= this.byID.length) {
+            this.byID = Arrays.copyOf(this.byID, Math.max(ID + 1, this.byID.length * 2));
+        }
+        if (this.byID[ID] == null) {
+            this.byID[ID] = new Relatives();
+        }
+        return this.byID[ID];
+    }
+}
@@ -198,6 +198,12 @@ public class Util {
         }
 
         LocalDate today = LocalDate.now();
+
+        // birthdays on the 29th of February are on the 28th if not a leap year
+        if (birthMonth == 2 && birthDay == 29 && !today.isLeapYear()) {
+            birthDay = 28;
+        }
+
         int todayOfYear = today.getDayOfYear();
         int birthOfYear = LocalDate.of(today.getYear(), birthMonth, birthDay).getDayOfYear();
 
@@ -232,6 +238,11 @@ public class Util {
      * Return the given string decoded for URLs from UTF-8
      */
     public static String URLDecode(String s) {
+
+        // most fields have nothing encoded so don't bother decoding them
+        if (s.indexOf('%') == -1 && s.indexOf('+') == -1) {
+            return s;
+        }
         try {
             return URLDecoder.decode(s, "UTF-8");
         } catch (UnsupportedEncodingException err) {
@@ -0,0 +1,274 @@
+package core;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Walks up through someone's ancestors or down through their descendants
+ * without recursion, so however deep the tree is it can't overflow the call
+ * stack. A visitor is told when each person is entered and left and can stop
+ * the walk going any further from someone. The walk goes no further than a
+ * maximum number of generations and never enters someone who is already on
+ * the way from the start to them, so it ends even if someone is recorded as
+ * their own ancestor.
+ *
+ * Walking in order enters people depth first with mothers before fathers
+ * and children in the order they are stored. Someone related in more than
+ * one way is entered once for each way, like drawing the tree.
+ *
+ * Walking in parallel visits each person at most once from the common
+ * fork/join pool, one generation at a time so everyone is visited at the
+ * fewest generations from the start they can be reached in, however the
+ * work is shared out. Each generation is split between tasks so idle cores
+ * steal work from large ones, and in no particular order within it.
+ */
+public class Walker {
+
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    // Split a generation between two tasks once it has more than this many
+    // people
+    private static final int SPLIT_AFTER = 256;
+
+    public enum Direction {
+        UP,
+        DOWN
+    }
+
+    /**
+     * Told about each person as they are walked in order
+     */
+    public interface Visitor {
+
+        /**
+         * Called when the walk reaches the given person, the given number of
+         * generations from the start. Return false to not go any further
+         * from them.
+         */
+        boolean enter(Person person, int depth);
+
+        /**
+         * Called once everyone further from the start than the given person
+         * through them has been entered and left
+         */
+        void leave(Person person, int depth);
+    }
+
+    /**
+     * Told about each person as they are walked in parallel, from whichever
+     * thread reached them, so must be thread safe
+     */
+    public interface ParallelVisitor {
+
+        /**
+         * Called once for each person reached with the fewest number of
+         * generations from the start they can be reached in. Return false to
+         * not go any further from them.
+         */
+        boolean visit(Person person, int depth);
+    }
+
+    private final PersonStore personStore;
+    private final Direction direction;
+    private final int maxDepth;
+
+    /**
+     * @param maxDepth The most generations from the start to go, or
+     * `UNLIMITED`
+     */
+    public Walker(PersonStore personStore, Direction direction, int maxDepth) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("Maximum depth must not be negative");
+        }
+        this.personStore = personStore;
+        this.direction = direction;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Return the number of relatives the given person has in the direction
+     * being walked, some of whom may be unknown
+     */
+    private int numRelatives(Person person) {
+        return this.direction == Direction.UP ? 2 : person.getNumChildren();
+    }
+
+    /**
+     * Return the relative of the given person at the given index, between 0
+     * and `numRelatives`, or null if they are unknown
+     */
+    private Person relative(Person person, int index) {
+        if (this.direction == Direction.DOWN) {
+            return this.personStore.lookup(person.getChildID(index));
+        }
+        return index == 0 ? this.personStore.lookupMother(person) : this.personStore.lookupFather(person);
+    }
+
+    /**
+     * Walk from the given person depth first, telling the visitor as each
+     * person is entered and left. Holds the store's lock throughout so no
+     * one's links change part way through.
+     */
+    public void walk(Person start, Visitor visitor) {
+        synchronized (this.personStore) {
+            Person[] people = new Person[16];
+            int[] positions = new int[16];
+            boolean[] goFurther = new boolean[16];
+            BitSet onPath = new BitSet();
+
+            int size = 1;
+            people[0] = start;
+            positions[0] = 0;
+            goFurther[0] = visitor.enter(start, 0);
+            onPath.set(start.getID());
+
+            while (size > 0) {
+                int depth = size - 1;
+                Person person = people[depth];
+
+                // enter their next relative if there is one
+                if (goFurther[depth] && depth < this.maxDepth && positions[depth] < this.numRelatives(person)) {
+                    Person relative = this.relative(person, positions[depth]++);
+                    if (relative == null || onPath.get(relative.getID())) {
+                        continue;
+                    }
+                    if (size == people.length) {
+                        people = Arrays.copyOf(people, size * 2);
+                        positions = Arrays.copyOf(positions, size * 2);
+                        goFurther = Arrays.copyOf(goFurther, size * 2);
+                    }
+                    people[size] = relative;
+                    positions[size] = 0;
+                    goFurther[size] = visitor.enter(relative, depth + 1);
+                    onPath.set(relative.getID());
+                    size++;
+
+                // otherwise they are finished with
+                } else {
+                    visitor.leave(person, depth);
+                    onPath.clear(person.getID());
+                    people[depth] = null;
+                    size--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Walk from the given person across all cores, telling the visitor about
+     * each person reached exactly once including the start. Returns once
+     * everyone has been visited. Holds the store's lock throughout, so the
+     * visitor, which runs on other threads, must not call the store's
+     * public methods or it will wait forever.
+     */
+    public void walkParallel(Person start, ParallelVisitor visitor) {
+        synchronized (this.personStore) {
+            Claims claims = new Claims(this.personStore.getIDBound());
+            claims.claim(start.getID());
+
+            // everyone in the next generation is claimed before it is visited so
+            // no one can be claimed from a later one
+            int[] generation = {start.getID()};
+            for (int depth = 0; generation.length > 0; depth++) {
+                Task task = new Task(generation, 0, generation.length, depth, claims, visitor);
+                task.invoke();
+                generation = Arrays.copyOf(task.next, task.size);
+            }
+        }
+    }
+
+    /**
+     * Who has been reached so far by any thread, as a bitset that can be
+     * claimed from concurrently
+     */
+    private static class Claims {
+        private final AtomicLongArray bits;
+
+        Claims(int IDBound) {
+            this.bits = new AtomicLongArray((IDBound >> 6) + 1);
+        }
+
+        /**
+         * Return true if the given ID wasn't claimed and now is
+         */
+        boolean claim(int ID) {
+            if ((ID >> 6) >= this.bits.length()) {
+                // added since the walk started so not part of it
+                return false;
+            }
+            long bit = 1L << ID;
+            while (true) {
+                long word = this.bits.get(ID >> 6);
+                if ((word & bit) != 0) {
+                    return false;
+                }
+                if (this.bits.compareAndSet(ID >> 6, word, word | bit)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Visits the people in part of a generation and claims the people they
+     * reach in the next, splitting it between two new tasks if it is too big
+     */
+    private class Task extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int[] generation;
+        private final int from;
+        private final int to;
+        private final int depth;
+        private final Claims claims;
+        private final ParallelVisitor visitor;
+        private int[] next;
+        private int size;
+
+        Task(int[] generation, int from, int to, int depth, Claims claims, ParallelVisitor visitor) {
+            this.generation = generation;
+            this.from = from;
+            this.to = to;
+            this.depth = depth;
+            this.claims = claims;
+            this.visitor = visitor;
+            this.next = new int[0];
+            this.size = 0;
+        }
+
+        protected void compute() {
+            if (this.to - this.from > SPLIT_AFTER) {
+                int middle = (this.from + this.to) >>> 1;
+                Task first = new Task(this.generation, this.from, middle, this.depth, this.claims, this.visitor);
+                Task second = new Task(this.generation, middle, this.to, this.depth, this.claims, this.visitor);
+                invokeAll(first, second);
+                this.next = Arrays.copyOf(first.next, first.size + second.size);
+                System.arraycopy(second.next, 0, this.next, first.size, second.size);
+                this.size = first.size + second.size;
+                return;
+            }
+
+            for (int i = this.from; i < this.to; i++) {
+                Person person = personStore.lookup(this.generation[i]);
+                if (person == null || !this.visitor.visit(person, this.depth) || this.depth >= maxDepth) {
+                    continue;
+                }
+                for (int j = 0; j < numRelatives(person); j++) {
+                    Person relative = relative(person, j);
+                    if (relative != null && this.claims.claim(relative.getID())) {
+                        this.push(relative.getID());
+                    }
+                }
+            }
+        }
+
+        private void push(int ID) {
+            if (this.size == this.next.length) {
+                this.next = Arrays.copyOf(this.next, Math.max(16, this.size * 2));
+            }
+            this.next[this.size] = ID;
+            this.size++;
+        }
+    }
+}
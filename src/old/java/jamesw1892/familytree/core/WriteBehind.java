@@ -0,0 +1,123 @@
+package core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Background writer that coalesces changes to people into as few writes of
+ * the file as possible. Each change marks the store dirty and the writer
+ * waits a short window after the first change before writing so all changes
+ * made during the window are saved by the same write. Anyone who needs their
+ * change saved waits until a write that includes it has finished and been
+ * forced to disk.
+ *
+ * Changes are numbered in order so waiting for a change means waiting until
+ * the number of the last change written is at least its number.
+ */
+class WriteBehind implements Runnable {
+    private final PersonStore personStore;
+    private final long windowMillis;
+    private long lastChange;
+    private long lastWritten;
+    private long lastFailed;
+    private IOException failure;
+
+    /**
+     * Construct a writer for the given store that waits the given number of
+     * milliseconds after a change before writing. Start it with `start`.
+     */
+    WriteBehind(PersonStore personStore, long windowMillis) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("Write behind window must not be negative");
+        }
+        this.personStore = personStore;
+        this.windowMillis = windowMillis;
+        this.lastChange = 0;
+        this.lastWritten = 0;
+        this.lastFailed = 0;
+    }
+
+    void start() {
+        Thread thread = new Thread(this, "Write behind");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Record that a change has been made so it gets written
+     */
+    synchronized void changed() {
+        this.lastChange++;
+        this.notifyAll();
+    }
+
+    /**
+     * Block until every change recorded so far has been written.
+     * Must not be called while holding the store's lock or the writer could
+     * never write.
+     * @throws IOException If the write that should have included the changes
+     * failed
+     */
+    synchronized void awaitWritten() throws IOException {
+        long change = this.lastChange;
+        while (this.lastWritten < change) {
+            if (this.lastFailed >= change) {
+                throw new IOException("Failed to write changes", this.failure);
+            }
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for changes to be written");
+            }
+        }
+    }
+
+    /**
+     * Block until there are changes that haven't been written
+     */
+    private synchronized void awaitChange() throws InterruptedException {
+        while (this.lastChange == this.lastWritten) {
+            this.wait();
+        }
+    }
+
+    /**
+     * Repeatedly wait for a change, let more changes arrive during the window
+     * then write them all at once
+     */
+    public void run() {
+        try {
+            while (true) {
+                this.awaitChange();
+                Thread.sleep(this.windowMillis);
+
+                // hold the store's lock while writing so no change can be
+                // made part way through and the last change number read
+                // is exactly the changes included in the write
+                synchronized (this.personStore) {
+                    long change;
+                    synchronized (this) {
+                        change = this.lastChange;
+                    }
+                    try {
+                        this.personStore.write();
+                        synchronized (this) {
+                            this.lastWritten = change;
+                            this.notifyAll();
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        synchronized (this) {
+                            this.failure = e;
+                            this.lastFailed = change;
+                            this.notifyAll();
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // stop writing
+        }
+    }
+}
@@ -15,7 +15,16 @@ COMMANDS:
     -r                      Remove all class files
     -b                      Compile all java files
     -m [-a] FILE [ARGS]     Run main function of specified java FILE - must be absolute path or relative path from this script and not include the .java extension. All arguments after FILE are passed onto java so if -a is provided, it must be before the file.
-    -g [-a] [PORT]          Run custom web server. Optionally provide the PORT between 0 and 65535. By default choose 8080. If 0 is chosen then a random port will be assigned. In any case, a link to the website including the port will be printed once the server has started.
+    -g [-a] [PORT] [OPTS]   Run custom web server. Optionally provide the PORT between 0 and 65535. By default choose 8080. If 0 is chosen then a random port will be assigned. In any case, a link to the website including the port will be printed once the server has started. OPTS are:
+                                --journal                   Save each change by appending to a journal alongside the file rather than rewriting the whole file
+                                --write-behind[=MILLIS]     Save changes in the background, writing all changes made within MILLIS (default 50) of each other at once
+                                --ancestor-index            Keep everyone's ancestors in memory so they don't need finding by walking up the tree
+                                --nio[=WORKERS]             Wait on every connection with one thread and handle requests on WORKERS threads
+                                --virtual-threads           Handle each request on a virtual thread (Java 21 or later). Not benchmarked, and on Java 21 to 23 virtual threads are pinned to their OS thread inside the synchronized methods of PersonStore
+                                --max-requests=N            Handle at most N requests at once
+                                --compression-threshold=B   Only compress responses of at least B bytes (default 1024)
+                                --compression-level=L       Compress from 1 (fastest) to 9 (smallest), default 6
+                                --no-compression            Never compress responses
     -c [-a]                 Run command-line interface
     -t [-a]                 Run tests
 
@@ -0,0 +1,117 @@
+package test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+import core.Person;
+import core.PersonStore;
+
+/**
+ * Not a unit test - times operations on a PersonStore of increasing sizes so
+ * that how the time grows with the number of people can be seen. Run with
+ * `run.sh -m test/BenchmarkCorePersonStore`
+ */
+public class BenchmarkCorePersonStore {
+    private static final int[] SIZES = {25000, 50000, 100000, 200000};
+    private static final int REPEATS = 5;
+    private static final int KINSHIP_PEOPLE = 1000;
+
+    /**
+     * Return a new store of the given size backed by a temporary file
+     */
+    static PersonStore generate(int size) throws IOException, DataFormatException {
+        File file = File.createTempFile("People", ".csv");
+        file.delete();
+        file.deleteOnExit();
+        PersonStore personStore = new PersonStore(file.getPath());
+        for (int i = 1; i <= size; i++) {
+            personStore.add("First" + i, "Middle Names", "Last", i % 2 == 0, 1900 + i % 100, 1 + i % 12, 1 + i % 28, i % 3 != 0, null, null, null, "Some notes about person " + i);
+
+            // give everyone after the first generation parents from earlier
+            if (i > 2 && i % 2 == 1) {
+                personStore.link(i, i / 2 % 2 == 0 ? i / 2 - 1 : i / 2, null);
+            }
+        }
+        return personStore;
+    }
+
+    /**
+     * Return the minimum time in milliseconds taken to run the given task
+     */
+    static double time(Task task) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int repeat = 0; repeat < REPEATS; repeat++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+
+    interface Task {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("Benchmarking PersonStore.write():");
+        double firstPerPerson = 0;
+        for (int size: SIZES) {
+            PersonStore personStore = generate(size);
+            double ms = time(personStore::write);
+            double perPerson = ms / size;
+            if (firstPerPerson == 0) {
+                firstPerPerson = perPerson;
+            }
+            System.out.println(String.format("%8d people: %8.1f ms, %6.3f us per person (x%.2f of smallest)",
+                size, ms, perPerson * 1000, perPerson / firstPerPerson));
+        }
+        System.out.println("Linear growth keeps the time per person roughly constant");
+
+        System.out.println();
+        System.out.println("Benchmarking reading with " + Runtime.getRuntime().availableProcessors() + " cores:");
+        for (int size: SIZES) {
+            PersonStore personStore = generate(size);
+            personStore.write();
+            String filename = personStore.getFilename();
+            File snapshot = new File(filename + ".bin");
+            snapshot.deleteOnExit();
+            double msSnapshot = time(() -> new PersonStore(filename));
+            snapshot.delete();
+            double msFile = time(() -> new PersonStore(filename));
+            System.out.println(String.format("%8d people: %8.1f ms from the file, %8.1f ms from the snapshot (x%.1f faster)",
+                size, msFile, msSnapshot, msFile / msSnapshot));
+        }
+
+        System.out.println();
+        System.out.println("Benchmarking personWithMostDescendants() after a link changes:");
+        for (int size: SIZES) {
+            PersonStore personStore = generate(size);
+            double msUnchanged = time(personStore::personWithMostDescendants);
+            double msChanged = time(() -> {
+                personStore.link(size - 1, null, null);
+                personStore.link(size - 1, 1, null);
+                personStore.personWithMostDescendants();
+            });
+            System.out.println(String.format("%8d people: %8.3f ms unchanged, %8.1f ms after a change",
+                size, msUnchanged, msChanged));
+        }
+
+        System.out.println();
+        System.out.println("Benchmarking kinshipMatrix() of the last " + KINSHIP_PEOPLE + " living people with " + Runtime.getRuntime().availableProcessors() + " cores:");
+        for (int size: SIZES) {
+            PersonStore personStore = generate(size);
+            List<Person> living = personStore.getLiving();
+            List<Person> last = living.subList(living.size() - KINSHIP_PEOPLE, living.size());
+            double msPair = time(() -> {
+                personStore.link(size - 1, null, null);
+                personStore.link(size - 1, 1, null);
+                personStore.kinship(last.get(0), last.get(1));
+            });
+            double msMatrix = time(() -> personStore.kinshipMatrix(last));
+            System.out.println(String.format("%8d people: %8.3f ms for a pair after a change, %8.1f ms for the matrix",
+                size, msPair, msMatrix));
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Not a unit test - load tests the web server in each of its modes by
+ * starting it in a new process on a copy of the example people and making
+ * many requests at once, while also holding many idle connections open.
+ * Shows the requests per second, how long they took and how many threads the
+ * server needed. Run with `run.sh -m test/BenchmarkWebServer` optionally
+ * followed by the number of clients, requests per client and idle
+ * connections.
+ */
+public class BenchmarkWebServer {
+    private static final String[][] MODES = {
+        {"Thread per connection"},
+        {"Virtual threads", "--virtual-threads"},
+        {"NIO", "--nio"},
+    };
+    private static final String[] PATHS = {"/", "/people", "/person/1", "/birthdays", "/styles.css"};
+    private static final int DEFAULT_CLIENTS = 32;
+    private static final int DEFAULT_REQUESTS_PER_CLIENT = 100;
+    private static final int DEFAULT_IDLE_CONNECTIONS = 500;
+
+    // How long the server keeps idle connections open
+    private static final int IDLE_TIMEOUT_SECONDS = 5;
+
+    /**
+     * A web server running in another process
+     */
+    private static class Server {
+        private final Process process;
+        private final int port;
+
+        /**
+         * Start the web server with the given options in the given directory
+         * and wait until it has started
+         */
+        Server(File directory, String[] options) throws IOException {
+            List<String> command = new ArrayList<>();
+            command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+            command.add("-cp");
+            command.add(absoluteClassPath());
+            command.add("web_server_custom.WebServer");
+            command.add("0");
+            command.addAll(Arrays.asList(options));
+            this.process = new ProcessBuilder(command).directory(directory).redirectErrorStream(true).start();
+
+            // find the port from the line saying the server has started and
+            // print anything before it, such as falling back from virtual
+            // threads
+            BufferedReader out = new BufferedReader(new InputStreamReader(this.process.getInputStream()));
+            String line;
+            int port = -1;
+            while (port == -1 && (line = out.readLine()) != null) {
+                if (line.startsWith("Server started at http://localhost:")) {
+                    port = Integer.parseInt(line.split(":")[2].split(" ")[0]);
+                } else {
+                    System.out.println("    " + line);
+                }
+            }
+            if (port == -1) {
+                throw new IOException("The server didn't start");
+            }
+            this.port = port;
+
+            // keep reading what it prints about each request so it never
+            // blocks on a full pipe
+            Thread drain = new Thread(() -> {
+                try {
+                    while (out.readLine() != null) {}
+                } catch (IOException e) {}
+            });
+            drain.setDaemon(true);
+            drain.start();
+        }
+
+        /**
+         * Return how many threads the server has, or -1 if it can't be found
+         * on this system
+         */
+        int threads() {
+            try {
+                for (String line: Files.readAllLines(Path.of("/proc", String.valueOf(this.process.pid()), "status"))) {
+                    if (line.startsWith("Threads:")) {
+                        return Integer.parseInt(line.substring("Threads:".length()).trim());
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {}
+            return -1;
+        }
+
+        /**
+         * Stop the server by pressing enter as a user would
+         */
+        void stop() throws Exception {
+            OutputStream in = this.process.getOutputStream();
+            in.write(System.lineSeparator().getBytes(StandardCharsets.UTF_8));
+            in.flush();
+            if (!this.process.waitFor(10, TimeUnit.SECONDS)) {
+                this.process.destroyForcibly();
+            }
+        }
+    }
+
+    private static String absoluteClassPath() {
+        StringBuilder classPath = new StringBuilder();
+        for (String entry: System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (classPath.length() > 0) {
+                classPath.append(File.pathSeparator);
+            }
+            classPath.append(new File(entry).getAbsolutePath());
+        }
+        return classPath.toString();
+    }
+
+    /**
+     * Return a temporary directory with the example people and web files the
+     * server needs, deleted when finished
+     */
+    private static File makeDirectory() throws IOException {
+        Path directory = Files.createTempDirectory("FamilyTree");
+        Files.copy(Path.of("Example.csv"), directory.resolve("People.csv"));
+        Files.createDirectory(directory.resolve("web"));
+        try (Stream<Path> files = Files.list(Path.of("web"))) {
+            for (Path file: (Iterable<Path>) files::iterator) {
+                Files.copy(file, directory.resolve("web").resolve(file.getFileName()));
+            }
+        }
+        directory.toFile().deleteOnExit();
+        return directory.toFile();
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file: files) {
+                deleteDirectory(file);
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Makes requests one after another, either each on a new connection or
+     * all on the same one kept open
+     */
+    private static class Client {
+        private final int port;
+        private final boolean keepAlive;
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+
+        Client(int port, boolean keepAlive) {
+            this.port = port;
+            this.keepAlive = keepAlive;
+        }
+
+        /**
+         * Make a single request for the given path, reading the whole
+         * response, and return whether it succeeded
+         */
+        boolean request(String path) {
+            try {
+                if (this.socket == null) {
+                    this.socket = new Socket("localhost", this.port);
+                    this.in = new BufferedInputStream(this.socket.getInputStream());
+                    this.out = this.socket.getOutputStream();
+                }
+                this.out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n"
+                    + (this.keepAlive ? "" : "Connection: close\r\n") + "\r\n").getBytes(StandardCharsets.UTF_8));
+                this.out.flush();
+
+                // read the header then as much content as it says there is
+                String status = readLine(this.in);
+                int contentLength = 0;
+                String line;
+                while (!(line = readLine(this.in)).isEmpty()) {
+                    if (line.toLowerCase().startsWith("content-length:")) {
+                        contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+                    }
+                }
+                boolean succeeded = status.startsWith("HTTP/1.1 200") && this.in.readNBytes(contentLength).length == contentLength;
+                if (!this.keepAlive) {
+                    this.close();
+                }
+                return succeeded;
+            } catch (IOException | NumberFormatException e) {
+                this.close();
+                return false;
+            }
+        }
+
+        void close() {
+            if (this.socket != null) {
+                try {
+                    this.socket.close();
+                } catch (IOException e) {}
+                this.socket = null;
+            }
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b == -1) {
+                    throw new EOFException();
+                }
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+            return line.toString();
+        }
+    }
+
+    /**
+     * Load test a server started with the given options
+     */
+    private static void benchmark(String name, String[] options, boolean keepAlive, int clients, int requestsPerClient, int idleConnections) throws Exception {
+        System.out.println(name + (keepAlive ? " with connections kept open:" : " with a new connection per request:"));
+        File directory = makeDirectory();
+        Server server = new Server(directory, options);
+
+        // hold idle connections open for the whole test
+        List<Socket> idle = new ArrayList<>();
+        try {
+            for (int i = 0; i < idleConnections; i++) {
+                idle.add(new Socket("localhost", server.port));
+            }
+        } catch (IOException e) {
+            System.out.println("    Only " + idle.size() + " idle connections could be opened");
+        }
+
+        long[] latencies = new long[clients * requestsPerClient];
+        AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[clients];
+        long start = System.nanoTime();
+        for (int client = 0; client < clients; client++) {
+            int first = client * requestsPerClient;
+            threads[client] = new Thread(() -> {
+                Client httpClient = new Client(server.port, keepAlive);
+                for (int i = 0; i < requestsPerClient; i++) {
+                    long requestStart = System.nanoTime();
+                    if (!httpClient.request(PATHS[(first + i) % PATHS.length])) {
+                        failures.incrementAndGet();
+                    }
+                    latencies[first + i] = System.nanoTime() - requestStart;
+                }
+                httpClient.close();
+            });
+            threads[client].start();
+        }
+        int peakThreads = server.threads();
+        for (Thread thread: threads) {
+            thread.join();
+            peakThreads = Math.max(peakThreads, server.threads());
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        for (Socket socket: idle) {
+            socket.close();
+        }
+        server.stop();
+        deleteDirectory(directory);
+
+        Arrays.sort(latencies);
+        System.out.println(String.format("    %8.0f requests/s, %6.2f ms median, %6.2f ms 99th percentile, %d failed, %s server threads",
+            latencies.length / seconds, latencies[latencies.length / 2] / 1e6, latencies[latencies.length * 99 / 100] / 1e6,
+            failures.get(), peakThreads == -1 ? "unknown" : String.valueOf(peakThreads)));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CLIENTS;
+        int requestsPerClient = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_REQUESTS_PER_CLIENT;
+        int idleConnections = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_IDLE_CONNECTIONS;
+        System.out.println("Load testing the web server with " + clients + " clients making " + requestsPerClient
+            + " requests each and " + idleConnections + " idle connections on " + Runtime.getRuntime().availableProcessors() + " cores:");
+        for (String[] mode: MODES) {
+            for (boolean keepAlive: new boolean[] {false, true}) {
+                benchmark(mode[0], Arrays.copyOfRange(mode, 1, mode.length), keepAlive, clients, requestsPerClient, idleConnections);
+            }
+        }
+        System.out.println("A thread per connection needs a thread for every idle connection, virtual threads and NIO don't,");
+        System.out.println("until idle connections are closed after " + IDLE_TIMEOUT_SECONDS + " seconds");
+    }
+}
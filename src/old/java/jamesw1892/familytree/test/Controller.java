@@ -85,6 +85,10 @@ public class Controller {
         // Call the test files to run
         new TestCorePerson();
         new TestCoreUtil();
+        new TestCorePersonStore();
+        new TestCoreWalker();
+        new TestWebServerCustomHeader();
+        new TestWebServerCustomCompression();
 
         // Output overall result
         String s = System.lineSeparator();
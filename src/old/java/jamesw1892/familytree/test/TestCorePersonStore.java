@@ -0,0 +1,1446 @@
+package test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.DataFormatException;
+
+import core.Person;
+import core.PersonStore;
+
+public class TestCorePersonStore {
+
+    public TestCorePersonStore() {
+        System.out.println(System.lineSeparator() + "Testing Core.PersonStore:");
+
+        // Call the tests to run
+        find();
+        children();
+        childrenConcurrent();
+        deleteParent();
+        deleteAll();
+        birthdays();
+        nextBirthdays();
+        descendants();
+        descendantsCousinsMarry();
+        relationship();
+        relationshipUnknownParent();
+        kinshipPath();
+        kinshipPathDeep();
+        kinship();
+        ownAncestor();
+        ownAncestorFile();
+        ancestorIndex();
+        siblingsAndPartners();
+        families();
+        writeRead();
+        writeStreamed();
+        journalReplay();
+        journalCompactFailure();
+        journalCompactReopened();
+        writeBehind();
+        snapshot();
+        writeInPlace();
+    }
+
+    /**
+     * Return the path of a temporary file that doesn't exist yet and is
+     * deleted when the tests finish
+     */
+    static String tempFilename() throws IOException {
+        File file = File.createTempFile("People", ".csv");
+        file.delete();
+        file.deleteOnExit();
+        new File(file.getPath() + ".journal").deleteOnExit();
+        new File(file.getPath() + ".bin").deleteOnExit();
+        return file.getPath();
+    }
+
+    /**
+     * Return a new empty store backed by a temporary file
+     */
+    static PersonStore emptyStore() throws IOException, DataFormatException {
+        return new PersonStore(tempFilename());
+    }
+
+    /**
+     * Add a person with the given names and sex, all other fields unknown
+     */
+    static int addPerson(PersonStore personStore, String nameFirst, Boolean isMale) {
+        return personStore.add(nameFirst, "", "Test", isMale, null, null, null, null, null, null, null, "");
+    }
+
+    private static void find() {
+        Controller c = new Controller("find", "Checks finds people by ID and everyone is still in order of ID after deleting");
+
+        try {
+            PersonStore personStore = emptyStore();
+            for (int i = 1; i <= 5; i++) {
+                addPerson(personStore, "Person" + i, null);
+            }
+            personStore.delete(3);
+
+            boolean allCorrect = personStore.find(3) == null && personStore.find(0) == null
+                && personStore.find(-1) == null && personStore.find(1000) == null
+                && personStore.find(4).getNameFirst().equals("Person4");
+            String IDs = "";
+            for (Person person: personStore.getEveryoneByID()) {
+                IDs += person.getID();
+            }
+            if (!IDs.equals("1245") || personStore.getEveryoneByID().size() != 4) {
+                allCorrect = false;
+                c.outputExpected("1245", IDs, "getEveryoneByID()");
+            }
+            c.result(allCorrect);
+        } catch (IOException | DataFormatException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void children() {
+        Controller c = new Controller("getChildren", "Checks children are the same as a set would give after many links and unlinks");
+
+        try {
+            PersonStore personStore = emptyStore();
+            int[] mothers = new int[3];
+            for (int i = 0; i < mothers.length; i++) {
+                mothers[i] = addPerson(personStore, "Mother" + i, false);
+            }
+
+            // link children to alternating mothers so their children are
+            // interleaved and have to be moved as they grow
+            HashSet<Integer> expected = new HashSet<>();
+            for (int i = 0; i < 60; i++) {
+                int child = addPerson(personStore, "Child" + i, null);
+                personStore.link(child, mothers[i % mothers.length], null);
+                if (i % mothers.length == 0) {
+                    expected.add(child);
+                }
+            }
+
+            // unlink some and move some to another mother
+            for (Person child: personStore.getChildren(personStore.find(mothers[0]))) {
+                if (child.getID() % 4 == 0) {
+                    personStore.link(child, null, null);
+                    expected.remove(child.getID());
+                } else if (child.getID() % 5 == 0) {
+                    personStore.link(child, mothers[1], null);
+                    expected.remove(child.getID());
+                }
+            }
+            int moved = personStore.find(mothers[1]).getChildID(0);
+            personStore.link(moved, mothers[0], null);
+            expected.add(moved);
+
+            HashSet<Integer> got = new HashSet<>();
+            for (int childID: personStore.find(mothers[0]).getChildrenIDs()) {
+                got.add(childID);
+            }
+            boolean correct = got.equals(expected) && personStore.find(mothers[0]).getNumChildren() == expected.size();
+            if (!correct) {
+                c.outputExpected(expected.toString(), got.toString(), "getChildrenIDs()");
+            }
+            c.result(correct);
+        } catch (IOException | DataFormatException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void childrenConcurrent() {
+        Controller c = new Controller("getChildren", "Checks children and everyone read while another thread links people are always whole");
+
+        try {
+            PersonStore personStore = emptyStore();
+            int[] mothers = new int[3];
+            for (int i = 0; i < mothers.length; i++) {
+                mothers[i] = addPerson(personStore, "Mother" + i, false);
+            }
+            int[] children = new int[60];
+            for (int i = 0; i < children.length; i++) {
+                children[i] = addPerson(personStore, "Child" + i, null);
+            }
+
+            // keep moving children between mothers so their children grow,
+            // shrink and are moved while being read
+            Thread linker = new Thread(() -> {
+                for (int round = 0; round < 200; round++) {
+                    for (int i = 0; i < children.length; i++) {
+                        personStore.link(children[i], mothers[(i + round) % mothers.length], null);
+                    }
+                }
+            });
+            linker.start();
+
+            boolean allCorrect = true;
+            while (linker.isAlive() && allCorrect) {
+                for (int mother: mothers) {
+                    for (Person child: personStore.getChildren(personStore.find(mother))) {
+                        if (!child.getNameFirst().startsWith("Child")) {
+                            allCorrect = false;
+                            c.outputExpected("a child", child.getNameFirst(), "getChildren()");
+                        }
+                    }
+                }
+                List<Person> everyone = personStore.getEveryoneByID();
+                addPerson(personStore, "Extra", null);
+                if (personStore.getEveryoneByID().size() != everyone.size() + 1) {
+                    allCorrect = false;
+                    c.output("getEveryoneByID() changed after it was returned");
+                }
+            }
+            linker.join();
+            c.result(allCorrect);
+        } catch (IOException | DataFormatException | InterruptedException | RuntimeException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void deleteParent() {
+        Controller c = new Controller("delete", "Checks parents can't be deleted or change sex but people who aren't parents can");
+
+        try {
+            PersonStore personStore = emptyStore();
+            int mother = addPerson(personStore, "Mother", false);
+            int father = addPerson(personStore, "Father", true);
+            int child = addPerson(personStore, "Child", null);
+            personStore.link(child, mother, father);
+
+            int refused = 0;
+            Runnable[] changes = {
+                () -> personStore.delete(mother),
+                () -> personStore.delete(father),
+                () -> personStore.editSex(mother, true),
+                () -> personStore.editSex(father, false),
+            };
+            for (Runnable change: changes) {
+                try {
+                    change.run();
+                } catch (IllegalArgumentException e) {
+                    refused++;
+                }
+            }
+
+            // once unlinked they are no longer parents
+            personStore.link(child, null, null);
+            personStore.editSex(mother, true);
+            personStore.delete(father);
+
+            boolean correct = refused == changes.length && personStore.find(father) == null
+                && personStore.find(mother).getIsMale();
+            if (refused != changes.length) {
+                c.outputExpected(String.valueOf(changes.length), String.valueOf(refused), "Number of changes refused");
+            }
+            c.result(correct);
+        } catch (IOException | DataFormatException | IllegalArgumentException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void deleteAll() {
+        Controller c = new Controller("deleteAll", "Checks parents can be deleted with their children but not without and nothing is deleted if anyone can't be");
+
+        try {
+            PersonStore personStore = emptyStore();
+            int grandmother = addPerson(personStore, "Grandmother", false);
+            int mother = addPerson(personStore, "Mother", false);
+            int child = addPerson(personStore, "Child", null);
+            int other = addPerson(personStore, "Other", null);
+            personStore.link(mother, grandmother, null);
+            personStore.link(child, mother, null);
+
+            boolean refused = false;
+            try {
+                personStore.deleteAll(List.of(other, grandmother, mother));
+            } catch (IllegalArgumentException e) {
+                refused = true;
+            }
+            boolean nothingDeleted = personStore.getEveryoneByID().size() == 4;
+
+            personStore.deleteAll(List.of(mother, other, child));
+            boolean correct = refused && nothingDeleted && personStore.getEveryoneByID().size() == 1
+                && personStore.find(grandmother).getNumChildren() == 0;
+            if (!correct) {
+                c.output("Refused: " + refused + ", nothing deleted: " + nothingDeleted
+                    + ", left: " + personStore.getEveryoneByID().size());
+            }
+            c.result(correct);
+        } catch (IOException | DataFormatException | IllegalArgumentException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void birthdays() {
+        Controller c = new Controller("getEveryoneByDaysUntilBirthday", "Checks everyone is in order of days until their birthday after changing birthdays and deleting");
+
+        try {
+            PersonStore personStore = emptyStore();
+            LocalDate today = LocalDate.now();
+            int[][] monthDays = {{2, 29}, {12, 31}, {1, 1}, {2, 28}, {3, 1}, {7, 14}};
+            for (int[] monthDay: monthDays) {
+                personStore.add("Person", "", "Test", null, 2000, monthDay[0], monthDay[1], null, null, null, null, "");
+            }
+            addPerson(personStore, "Unknown", null);
+            int yesterday = addPerson(personStore, "Yesterday", null);
+            int today1 = addPerson(personStore, "Today", null);
+            int today2 = addPerson(personStore, "Today", null);
+            personStore.editDOB(yesterday, 2000, today.minusDays(1).getMonthValue(), today.minusDays(1).getDayOfMonth());
+            personStore.editDOB(today2, 2000, today.getMonthValue(), today.getDayOfMonth());
+            personStore.editDOB(today1, 2000, today.getMonthValue(), today.getDayOfMonth());
+            personStore.delete(3);
+
+            String order = "";
+            int previousDays = -1;
+            boolean correct = personStore.getEveryoneByDaysUntilBirthday().size() == 9;
+            for (Person person: personStore.getEveryoneByDaysUntilBirthday()) {
+                int days = person.getDaysUntilBirthday();
+                if (days < previousDays) {
+                    correct = false;
+                }
+                previousDays = days;
+                order += person.getID() + ":" + days + " ";
+            }
+            correct = correct && order.startsWith(today1 + ":0 " + today2 + ":0 ") && order.endsWith(yesterday + ":" + previousDays + " ");
+            if (!correct) {
+                c.output("Order of ID:days is " + order);
+            }
+            c.result(correct);
+        } catch (IOException | DataFormatException | IllegalArgumentException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void nextBirthdays() {
+        Controller c = new Controller("nextBirthdays", "Checks pages of the next birthdays match everyone in order of days until their birthday");
+
+        try {
+            PersonStore personStore = emptyStore();
+            for (int i = 0; i < 40; i++) {
+                int ID = personStore.add("Person" + i, "", "Test", null, 2000, i % 12 + 1, i % 28 + 1, null, null, null, null, "");
+                if (i % 3 == 0) {
+                    personStore.editDOD(ID, true, null, null, null);
+                }
+            }
+            personStore.editDOD(4, false, 2020, 1, 1);
+
+            boolean correct = true;
+            for (boolean livingOnly: new boolean[] {false, true}) {
+                ArrayList<Person> expected = new ArrayList<>();
+                for (Person person: personStore.getEveryoneByDaysUntilBirthday()) {
+                    if (!livingOnly || (person.getIsLiving() != null && person.getIsLiving())) {
+                        expected.add(person);
+                    }
+                }
+                ArrayList<Person> got = new ArrayList<>();
+                for (int offset = 0; offset <= expected.size(); offset += 7) {
+                    got.addAll(personStore.nextBirthdays(offset, 7, livingOnly));
+                }
+                if (!got.equals(expected)) {
+                    correct = false;
+                    c.outputExpected(expected.toString(), got.toString(), "nextBirthdays living only " + livingOnly);
+                }
+            }
+            c.result(correct && personStore.nextBirthdays(1000, 10, false).isEmpty());
+        } catch (IOException | DataFormatException | IllegalArgumentException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    /**
+     * Add the descendants of the given person to the given set by finding
+     * them from scratch
+     */
+    private static void findDescendants(PersonStore personStore, Person person, HashSet<Person> descendants) {
+        for (Person child: personStore.getChildren(person)) {
+            if (descendants.add(child)) {
+                findDescendants(personStore, child, descendants);
+            }
+        }
+    }
+
+    private static int countDescendants(PersonStore personStore, Person person) {
+        HashSet<Person> descendants = new HashSet<>();
+        findDescendants(personStore, person, descendants);
+        return descendants.size();
+    }
+
+    private static void descendants() {
+        Controller c = new Controller("numDescendants", "Checks descendant counts and the person with the most stay correct as people are linked, unlinked and deleted");
+
+        try {
+            PersonStore personStore = emptyStore();
+            Random random = new Random(1);
+            for (int i = 0; i < 60; i++) {
+                addPerson(personStore, "Person" + i, i % 2 == 0);
+            }
+
+            // odd IDs are male and even are female. Only link to parents
+            // with lower IDs so no-one is their own ancestor, and sometimes
+            // delete someone without children
+            for (int i = 0; i < 300; i++) {
+                int ID = 3 + random.nextInt(58);
+                Integer fatherID = random.nextInt(4) == 0 ? null : 1 + 2 * random.nextInt((ID - 1) / 2);
+                Integer motherID = random.nextInt(4) == 0 ? null : 2 + 2 * random.nextInt((ID - 1) / 2);
+                if (personStore.find(ID) != null
+                        && (fatherID == null || personStore.find(fatherID) != null)
+                        && (motherID == null || personStore.find(motherID) != null)) {
+                    personStore.link(ID, motherID, fatherID);
+                }
+                if (i % 50 == 49) {
+                    for (Person person: personStore.getEveryoneByID()) {
+                        if (person.getNumChildren() == 0) {
+                            personStore.delete(person.getID());
+                            break;
+                        }
+                    }
+                }
+            }
+
+            boolean correct = true;
+            Person expectedMost = null;
+            int expectedMostDescendants = -1;
+            for (Person person: personStore.getEveryoneByID()) {
+                int expected = countDescendants(personStore, person);
+                if (personStore.numDescendants(person) != expected) {
+                    correct = false;
+                    c.outputExpected(String.valueOf(expected), String.valueOf(personStore.numDescendants(person)), "numDescendants of " + person.getID());
+                }
+                if (expected > expectedMostDescendants) {
+                    expectedMost = person;
+                    expectedMostDescendants = expected;
+                }
+            }
+            if (personStore.personWithMostDescendants() != expectedMost) {
+                correct = false;
+                c.outputExpected(expectedMost.formatID(), personStore.personWithMostDescendants().formatID(), "personWithMostDescendants");
+            }
+
+            // the counts worked out when reading should be the same
+            personStore.write();
+            PersonStore reread = new PersonStore(personStore.getFilename());
+            for (Person person: personStore.getEveryoneByID()) {
+                if (reread.numDescendants(reread.find(person.getID())) != personStore.numDescendants(person)) {
+                    correct = false;
+                    c.output("numDescendants of " + person.getID() + " different after reading");
+                }
+            }
+            c.result(correct && expectedMostDescendants > 0);
+        } catch (IOException | DataFormatException | IllegalArgumentException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void descendantsCousinsMarry() {
+        Controller c = new Controller("numDescendants", "Checks someone descended from a person in more than one way is only counted once");
+
+        try {
+            PersonStore personStore = emptyStore();
+            int grandmother = addPerson(personStore, "Grandmother", false);
+            int grandfather = addPerson(personStore, "Grandfather", true);
+            int aunt = addPerson(personStore, "Aunt", false);
+            int uncle = addPerson(personStore, "Uncle", true);
+            int auntHusband = addPerson(personStore, "AuntHusband", true);
+            int uncleWife = addPerson(personStore, "UncleWife", false);
+            int cousin1 = addPerson(personStore, "Cousin1", false);
+            int cousin2 = addPerson(personStore, "Cousin2", true);
+            int child = addPerson(personStore, "Child", null);
+            personStore.link(aunt, grandmother, grandfather);
+            personStore.link(uncle, grandmother, grandfather);
+            personStore.link(cousin1, aunt, auntHusband);
+            personStore.link(cousin2, uncleWife, uncle);
+            boolean correctBefore = personStore.personWithMostDescendants().getID() == grandmother
+                && personStore.numDescendants(personStore.find(grandmother)) == 4;
+
+            // the cousins have a child who descends from the grandparents
+            // through both of them
+            personStore.link(child, cousin1, cousin2);
+            Person most = personStore.personWithMostDescendants();
+            boolean correct = correctBefore && most.getID() == grandmother
+                && personStore.numDescendants(most) == 5
+                && personStore.numDescendants(personStore.find(grandfather)) == 5
+                && personStore.numDescendants(personStore.find(aunt)) == 2
+                && personStore.numDescendants(personStore.find(auntHusband)) == 2;
+            if (!correct) {
+                c.outputExpected("5", String.valueOf(personStore.numDescendants(personStore.find(grandmother))), "numDescendants of grandmother");
+            }
+            c.result(correct);
+        } catch (IOException | DataFormatException | IllegalArgumentException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void relationship() {
+        Controller c = new Controller("relationship", "Checks how people are related is described from their nearest common ancestors");
+
+        try {
+            PersonStore personStore = emptyStore();
+            int greatGrandmother = addPerson(personStore, "GreatGrandmother", false);
+            int greatGrandfather = addPerson(personStore, "GreatGrandfather", true);
+            int grandmother = addPerson(personStore, "Grandmother", false);
+            int grandfather = addPerson(personStore, "Grandfather", true);
+            int greatUncle = addPerson(personStore, "GreatUncle", true);
+            int greatUncleWife = addPerson(personStore, "GreatUncleWife", false);
+            int mother = addPerson(personStore, "Mother", false);
+            int father = addPerson(personStore, "Father", true);
+            int otherFather = addPerson(personStore, "OtherFather", true);
+            int aunt = addPerson(personStore, "Aunt", false);
+            int auntHusband = addPerson(personStore, "AuntHusband", true);
+            int person = addPerson(personStore, "Person", true);
+            int sister = addPerson(personStore, "Sister", false);
+            int halfBrother = addPerson(personStore, "HalfBrother", true);
+            int cousin = addPerson(personStore, "Cousin", true);
+            int cousinChild = addPerson(personStore, "CousinChild", false);
+            int greatUncleChild = addPerson(personStore, "GreatUncleChild", false);
+            int secondCousin = addPerson(personStore, "SecondCousin", true);
+            int unrelated = addPerson(personStore, "Unrelated", null);
+            personStore.link(grandmother, greatGrandmother, greatGrandfather);
+            personStore.link(greatUncle, greatGrandmother, greatGrandfather);
+            personStore.link(mother, grandmother, grandfather);
+            personStore.link(aunt, grandmother, grandfather);
+            personStore.link(person, mother, father);
+            personStore.link(sister, mother, father);
+            personStore.link(halfBrother, mother, otherFather);
+            personStore.link(cousin, aunt, auntHusband);
+            personStore.link(greatUncleChild, greatUncleWife, greatUncle);
+            personStore.link(secondCousin, greatUncleChild, null);
+            personStore.link(cousinChild, null, cousin);
+
+            int[][] pairs = {
+                {person, person}, {person, mother}, {person, grandmother}, {person, greatGrandfather},
+                {mother, person}, {greatGrandmother, person}, {person, sister}, {person, halfBrother},
+                {person, aunt}, {aunt, person}, {person, greatUncle}, {person, cousin},
+                {person, cousinChild}, {cousinChild, person}, {person, secondCousin}, {person, unrelated},
+            };
+            String[] expected = {
+                "the same person", "mother", "grandmother", "great-grandfather",
+                "son", "great-grandson", "sister", "half-brother",
+                "aunt", "nephew", "granduncle", "first cousin",
+                "first cousin once removed", "first cousin once removed", "second cousin", "not related by blood",
+            };
+
+            boolean correct = true;
+            for (int i = 0; i < pairs.length; i++) {
+                String got = personStore.relationship(pairs[i][0], pairs[i][1]).describe();
+                if (!got.equals(expected[i])) {
+                    correct = false;
+                    c.outputExpected(expected[i], got, "relationship(" + personStore.find(pairs[i][0]).getNameFirst() + ", " + personStore.find(pairs[i][1]).getNameFirst() + ")");
+                }
+            }
+
+            List<Person> ancestors = personStore.relationship(person, cousin).getCommonAncestors();
+            if (ancestors.size() != 2 || !ancestors.contains(personStore.find(grandmother)) || !ancestors.contains(personStore.find(grandfather))) {
+                correct = false;
+                c.output("Nearest common ancestors of cousins should be both grandparents but were " + ancestors);
+            }
+            c.result(correct);
+        } catch (IOException | DataFormatException | IllegalArgumentException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void relationshipUnknownParent() {
+        Controller c = new Controller("relationship", "Checks people are only called half relatives when the parents they don't share are known");
+
+        try {
+            PersonStore personStore = emptyStore();
+            int mother = addPerson(personStore, "Mother", false);
+            int father = addPerson(personStore, "Father", true);
+            int otherFather = addPerson(personStore, "OtherFather", true);
+            int daughter = addPerson(personStore, "Daughter", false);
+            int son = addPerson(personStore, "Son", true);
+            int unknownFatherDaughter = addPerson(personStore, "UnknownFatherDaughter", false);
+            int unknownFatherSon = addPerson(personStore, "UnknownFatherSon", true);
+            int halfSon = addPerson(personStore, "HalfSon", true);
+            int grandchild = addPerson(personStore, "Grandchild", null);
+            int halfGrandchild = addPerson(personStore, "HalfGrandchild", null);
+            personStore.link(daughter, mother, father);
+            personStore.link(son, mother, father);
+            personStore.link(unknownFatherDaughter, mother, null);
+            personStore.link(unknownFatherSon, mother, null);
+            personStore.link(halfSon, mother, otherFather);
+            personStore.link(grandchild, unknownFatherDaughter, null);
+            personStore.link(halfGrandchild, null, halfSon);
+
+            int[][] pairs = {
+                {unknownFatherDaughter, unknownFatherSon}, {daughter, unknownFatherSon}, {daughter, son},
+                {daughter, halfSon}, {daughter, grandchild}, {grandchild, halfGrandchild},
+            };
+            String[] expected = {
+                "brother", "brother", "brother",
+                "half-brother", "niece or nephew", "first cousin",
+            };
+
+            boolean correct = true;
+            for (int i = 0; i < pairs.length; i++) {
+                String got = personStore.relationship(pairs[i][0], pairs[i][1]).describe();
+                if (!got.equals(expected[i])) {
+                    correct = false;
+                    c.outputExpected(expected[i], got, "relationship(" + personStore.find(pairs[i][0]).getNameFirst() + ", " + personStore.find(pairs[i][1]).getNameFirst() + ")");
+                }
+            }
+            c.result(correct);
+        } catch (IOException | DataFormatException | IllegalArgumentException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    /**
+     * Return the first names of the given people separated by spaces
+     */
+    private static String firstNames(List<Person> people) {
+        String out = "";
+        for (Person person: people) {
+            out += (out.isEmpty() ? "" : " ") + person.getNameFirst();
+        }
+        return out;
+    }
+
+    private static void kinshipPath() {
+        Controller c = new Controller("kinshipPath", "Checks the shortest chain of parents and children is found between two people");
+
+        try {
+            PersonStore personStore = emptyStore();
+            int grandmother = addPerson(personStore, "Grandmother", false);
+            int mother = addPerson(personStore, "Mother", false);
+            int aunt = addPerson(personStore, "Aunt", false);
+            int person = addPerson(personStore, "Person", true);
+            int cousin = addPerson(personStore, "Cousin", true);
+            int father = addPerson(personStore, "Father", true);
+            int halfSister = addPerson(personStore, "Halfsister", false);
+            int unrelated = addPerson(personStore, "Unrelated", null);
+            personStore.link(mother, grandmother, null);
+            personStore.link(aunt, grandmother, null);
+            personStore.link(person, mother, father);
+            personStore.link(cousin, aunt, null);
+            personStore.link(halfSister, null, father);
+
+            int[][] pairs = {
+                {person, person}, {person, mother}, {person, cousin}, {cousin, halfSister}, {grandmother, father},
+            };
+            String[] expected = {
+                "Person", "Person Mother", "Person Mother Grandmother Aunt Cousin",
+                "Cousin Aunt Grandmother Mother Person Father Halfsister", "Grandmother Mother Person Father",
+            };
+
+            boolean correct = true;
+            for (int i = 0; i < pairs.length; i++) {
+                String got = firstNames(personStore.kinshipPath(pairs[i][0], pairs[i][1]));
+                if (!got.equals(expected[i])) {
+                    correct = false;
+                    c.outputExpected(expected[i], got, "kinshipPath(" + personStore.find(pairs[i][0]).getNameFirst() + ", " + personStore.find(pairs[i][1]).getNameFirst() + ")");
+                }
+            }
+            if (personStore.kinshipPath(person, unrelated) != null) {
+                correct = false;
+                c.output("There should be no path to someone unrelated");
+            }
+
+            c.result(correct);
+        } catch (IOException | DataFormatException | IllegalArgumentException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void kinshipPathDeep() {
+        Controller c = new Controller("kinshipPath", "Checks the path and kinship are found between the ends of a line of many generations");
+
+        try {
+            // write the line to the file directly since linking each
+            // generation one by one would be slow
+            String filename = tempFilename();
+            int generations = 20000;
+            PrintWriter out = new PrintWriter(filename);
+            out.println("ID,First Name,Middle Names,Last Name,Is Male,Birth Year,Birth Month,Birth Day,Is Living,Death Year,Death Month,Death Day,Mother ID,Father ID,Notes");
+            for (int ID = 1; ID <= generations; ID++) {
+                out.println(ID + ",Person,,Test,true,,,,,,,,," + (ID == 1 ? "" : ID - 1) + ",");
+            }
+            out.close();
+            PersonStore personStore = new PersonStore(filename);
+
+            List<Person> path = personStore.kinshipPath(generations, 1);
+            boolean correct = path != null && path.size() == generations
+                && path.get(0).getID() == generations && path.get(generations - 1).getID() == 1
+                && personStore.kinship(generations, 1) >= 0 && personStore.kinship(generations, generations) == 1 / 2.0;
+            if (!correct) {
+                c.outputExpected(String.valueOf(generations), path == null ? "null" : String.valueOf(path.size()), "kinshipPath(bottom, top).size()");
+            }
+            c.result(correct);
+        } catch (IOException | DataFormatException | StackOverflowError e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void kinship() {
+        Controller c = new Controller("kinship", "Checks kinship and inbreeding coefficients match the known values for each relationship");
+
+        try {
+            PersonStore personStore = emptyStore();
+            int grandmother = addPerson(personStore, "Grandmother", false);
+            int grandfather = addPerson(personStore, "Grandfather", true);
+            int mother = addPerson(personStore, "Mother", false);
+            int uncle = addPerson(personStore, "Uncle", true);
+            int father = addPerson(personStore, "Father", true);
+            int otherMother = addPerson(personStore, "Othermother", false);
+            int person = addPerson(personStore, "Person", false);
+            int brother = addPerson(personStore, "Brother", true);
+            int halfBrother = addPerson(personStore, "Halfbrother", true);
+            int cousin = addPerson(personStore, "Cousin", true);
+            int inbred = addPerson(personStore, "Inbred", null);
+            int unrelated = addPerson(personStore, "Unrelated", null);
+            personStore.link(mother, grandmother, grandfather);
+            personStore.link(uncle, grandmother, grandfather);
+            personStore.link(person, mother, father);
+            personStore.link(brother, mother, father);
+            personStore.link(halfBrother, otherMother, father);
+            personStore.link(cousin, null, uncle);
+            personStore.link(inbred, person, halfBrother);
+
+            int[][] pairs = {
+                {person, person}, {person, mother}, {mother, person}, {person, grandmother}, {person, brother},
+                {person, halfBrother}, {person, uncle}, {person, cousin}, {person, unrelated}, {inbred, inbred},
+            };
+            double[] expected = {
+                1 / 2.0, 1 / 4.0, 1 / 4.0, 1 / 8.0, 1 / 4.0,
+                1 / 8.0, 1 / 8.0, 1 / 16.0, 0, (1 + 1 / 8.0) / 2,
+            };
+
+            boolean correct = true;
+            for (int i = 0; i < pairs.length; i++) {
+                double got = personStore.kinship(pairs[i][0], pairs[i][1]);
+                if (got != expected[i]) {
+                    correct = false;
+                    c.outputExpected(String.valueOf(expected[i]), String.valueOf(got), "kinship(" + personStore.find(pairs[i][0]).getNameFirst() + ", " + personStore.find(pairs[i][1]).getNameFirst() + ")");
+                }
+            }
+            if (personStore.inbreeding(inbred) != 1 / 8.0 || personStore.inbreeding(person) != 0) {
+                correct = false;
+                c.output("Inbreeding should be the kinship of the parents, or 0 if either is unknown");
+            }
+
+            // every pair in the matrix the same as asking for each
+            List<Person> everyone = new ArrayList<>(personStore.getEveryoneByID());
+            double[][] matrix = personStore.kinshipMatrix(everyone);
+            for (int i = 0; i < everyone.size(); i++) {
+                for (int j = 0; j < everyone.size(); j++) {
+                    if (matrix[i][j] != personStore.kinship(everyone.get(i), everyone.get(j))) {
+                        correct = false;
+                        c.output("Matrix differs for " + everyone.get(i).getNameFirst() + " and " + everyone.get(j).getNameFirst());
+                    }
+                }
+            }
+
+            // changing a link changes the results
+            personStore.link(cousin, null, null);
+            if (personStore.kinship(person, cousin) != 0) {
+                correct = false;
+                c.output("Kinship should be forgotten once a link changes");
+            }
+            c.result(correct);
+        } catch (IOException | DataFormatException | IllegalArgumentException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void ownAncestor() {
+        Controller c = new Controller("link", "Checks no-one can be linked to become their own ancestor");
+
+        try {
+            PersonStore personStore = emptyStore();
+            int grandmother = addPerson(personStore, "Grandmother", false);
+            int mother = addPerson(personStore, "Mother", false);
+            int son = addPerson(personStore, "Son", true);
+            int daughter = addPerson(personStore, "Daughter", false);
+            personStore.link(mother, grandmother, null);
+            personStore.link(son, mother, null);
+            personStore.link(daughter, mother, null);
+
+            boolean correct = true;
+            int[][] links = {{mother, mother, 0}, {grandmother, mother, 0}, {grandmother, daughter, 0}, {mother, 0, son}};
+            String[] descriptions = {"their own mother", "their daughter's daughter", "their granddaughter's daughter", "their son's son"};
+            for (int i = 0; i < links.length; i++) {
+                try {
+                    personStore.link(links[i][0], links[i][1] == 0 ? null : links[i][1], links[i][2] == 0 ? null : links[i][2]);
+                    correct = false;
+                    c.output("Someone shouldn't be able to be " + descriptions[i]);
+                } catch (IllegalArgumentException e) {}
+            }
+
+            try {
+                personStore.editAll(grandmother, "Grandmother", "", "Test", false, null, null, null, null, null, null, null, "", daughter, null);
+                correct = false;
+                c.output("Editing someone shouldn't be able to make them their granddaughter's daughter");
+            } catch (IllegalArgumentException e) {}
+
+            // the same parents again and unrelated parents are still fine
+            personStore.link(son, mother, null);
+            int other = addPerson(personStore, "Other", false);
+            personStore.link(grandmother, other, null);
+            if (!personStore.getMother(personStore.find(grandmother)).equals(personStore.find(other))) {
+                correct = false;
+                c.output("Linking to someone unrelated should work");
+            }
+            c.result(correct);
+        } catch (IOException | DataFormatException | IllegalArgumentException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void ownAncestorFile() {
+        Controller c = new Controller("read", "Checks a file where someone is their own ancestor is rejected");
+
+        try {
+            String filename = tempFilename();
+            PrintWriter out = new PrintWriter(filename);
+            out.println("ID,First Name,Middle Names,Last Name,Is Male,Birth Year,Birth Month,Birth Day,Is Living,Death Year,Death Month,Death Day,Mother ID,Father ID,Notes");
+            out.println("1,Top,,Test,false,,,,,,,,,,");
+            out.println("2,Person,,Test,false,,,,,,,,4,,");
+            out.println("3,Person,,Test,false,,,,,,,,2,,");
+            out.println("4,Person,,Test,false,,,,,,,,3,,");
+            out.close();
+            try {
+                new PersonStore(filename);
+                c.output("Reading should have thrown a DataFormatException");
+                c.fail();
+            } catch (DataFormatException e) {
+                c.pass();
+            }
+        } catch (IOException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void ancestorIndex() {
+        Controller c = new Controller("ancestorIndex", "Checks ancestors found from the index match walking up as people are linked, unlinked and deleted");
+
+        try {
+            PersonStore indexed = emptyStore();
+            PersonStore walked = emptyStore();
+            PersonStore[] stores = {indexed, walked};
+            Random random = new Random(2);
+            for (PersonStore personStore: stores) {
+                for (int i = 0; i < 40; i++) {
+                    addPerson(personStore, "Person" + i, i % 2 == 0);
+                }
+            }
+
+            // make the same changes to both, only using the index for one
+            // from part way through so it is built with links already there.
+            // Only link to parents with lower IDs as in `descendants`.
+            boolean correct = true;
+            for (int i = 0; i < 200; i++) {
+                if (i == 50) {
+                    indexed.useAncestorIndex();
+                }
+                int ID = 3 + random.nextInt(38);
+                Integer fatherID = random.nextInt(4) == 0 ? null : 1 + 2 * random.nextInt((ID - 1) / 2);
+                Integer motherID = random.nextInt(4) == 0 ? null : 2 + 2 * random.nextInt((ID - 1) / 2);
+                for (PersonStore personStore: stores) {
+                    if (personStore.find(ID) != null
+                            && (fatherID == null || personStore.find(fatherID) != null)
+                            && (motherID == null || personStore.find(motherID) != null)) {
+                        personStore.link(ID, motherID, fatherID);
+                    }
+                }
+
+                // sometimes delete a parent along with their children, who
+                // have no children themselves
+                if (i % 40 == 39) {
+                    for (Person person: walked.getEveryoneByID()) {
+                        ArrayList<Integer> IDs = new ArrayList<>();
+                        IDs.add(person.getID());
+                        boolean grandparent = false;
+                        for (Person child: walked.getChildren(person)) {
+                            IDs.add(child.getID());
+                            grandparent |= child.getNumChildren() > 0;
+                        }
+                        if (IDs.size() > 1 && !grandparent) {
+                            indexed.deleteAll(IDs);
+                            walked.deleteAll(IDs);
+                            break;
+                        }
+                    }
+                }
+                if (i == 150) {
+                    addPerson(indexed, "Late", true);
+                    addPerson(walked, "Late", true);
+                }
+            }
+
+            for (Person person: walked.getEveryoneByID()) {
+                for (Person relative: walked.getEveryoneByID()) {
+                    Person indexedPerson = indexed.find(person.getID());
+                    Person indexedRelative = indexed.find(relative.getID());
+                    if (indexed.isAncestor(indexedPerson, indexedRelative) != walked.isAncestor(person, relative)) {
+                        correct = false;
+                        c.output("isAncestor(" + person.getID() + ", " + relative.getID() + ") differs");
+                    }
+                    if (!indexed.commonAncestors(indexedPerson, indexedRelative).toString().equals(walked.commonAncestors(person, relative).toString())) {
+                        correct = false;
+                        c.output("commonAncestors(" + person.getID() + ", " + relative.getID() + ") differs");
+                    }
+                    if (!indexed.relationship(indexedPerson, indexedRelative).describe().equals(walked.relationship(person, relative).describe())) {
+                        correct = false;
+                        c.output("relationship(" + person.getID() + ", " + relative.getID() + ") differs");
+                    }
+                }
+            }
+
+            // and both should match the descendants found directly
+            int numAncestors = 0;
+            for (Person person: walked.getEveryoneByID()) {
+                HashSet<Person> descendants = new HashSet<>();
+                findDescendants(walked, person, descendants);
+                for (Person relative: walked.getEveryoneByID()) {
+                    if (walked.isAncestor(person, relative) != (relative != person && descendants.contains(relative))) {
+                        correct = false;
+                        c.output("isAncestor(" + person.getID() + ", " + relative.getID() + ") wrong");
+                    }
+                    if (walked.isAncestor(person, relative)) {
+                        numAncestors++;
+                    }
+                }
+            }
+            c.result(correct && numAncestors > 0 && walked.getEveryoneByID().size() < 41);
+        } catch (IOException | DataFormatException | IllegalArgumentException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    /**
+     * Return the IDs of the given people in order
+     */
+    private static String IDs(Collection<Person> people) {
+        TreeSet<Integer> IDs = new TreeSet<>();
+        for (Person person: people) {
+            IDs.add(person.getID());
+        }
+        return IDs.toString();
+    }
+
+    private static void siblingsAndPartners() {
+        Controller c = new Controller("getSiblings", "Checks cached siblings and partners stay the same as finding them from scratch as people are linked, unlinked and deleted");
+
+        try {
+            PersonStore personStore = emptyStore();
+            Random random = new Random(3);
+            for (int i = 0; i < 40; i++) {
+                addPerson(personStore, "Person" + i, i % 2 == 0);
+            }
+
+            boolean correct = true;
+            for (int i = 0; i < 300; i++) {
+                // only the first 6 are parents so no-one is their own
+                // ancestor
+                int ID = 7 + random.nextInt(34);
+                Integer fatherID = random.nextInt(4) == 0 ? null : 1 + 2 * random.nextInt(3);
+                Integer motherID = random.nextInt(4) == 0 ? null : 2 + 2 * random.nextInt(3);
+                if (personStore.find(ID) != null
+                        && (fatherID == null || personStore.find(fatherID) != null)
+                        && (motherID == null || personStore.find(motherID) != null)) {
+                    personStore.link(ID, motherID, fatherID);
+                }
+                if (i % 60 == 59) {
+                    for (Person person: personStore.getEveryoneByID()) {
+                        if (person.getNumChildren() == 0 && person.getID() > 6) {
+                            personStore.delete(person.getID());
+                            break;
+                        }
+                    }
+                }
+
+                // look at everyone's part way through so there is something
+                // cached to keep up to date
+                if (i % 10 != 0) {
+                    continue;
+                }
+                for (Person person: personStore.getEveryoneByID()) {
+                    Person mother = personStore.getMother(person);
+                    Person father = personStore.getFather(person);
+                    HashSet<Person> full = new HashSet<>();
+                    HashSet<Person> half = new HashSet<>();
+                    HashSet<Person> partners = new HashSet<>();
+                    for (Person other: personStore.getEveryoneByID()) {
+                        Person otherMother = personStore.getMother(other);
+                        Person otherFather = personStore.getFather(other);
+                        boolean sameMother = mother != null && mother == otherMother;
+                        boolean sameFather = father != null && father == otherFather;
+                        if (other != person && sameMother && sameFather) {
+                            full.add(other);
+                        } else if (other != person && (sameMother || sameFather)) {
+                            half.add(other);
+                        }
+                        if (otherMother == person && otherFather != null) {
+                            partners.add(otherFather);
+                        }
+                        if (otherFather == person && otherMother != null) {
+                            partners.add(otherMother);
+                        }
+                    }
+                    HashSet<Person> all = new HashSet<>(full);
+                    all.addAll(half);
+                    if (!IDs(personStore.getFullSiblings(person)).equals(IDs(full))
+                            || !IDs(personStore.getHalfSiblings(person)).equals(IDs(half))
+                            || !IDs(personStore.getSiblings(person)).equals(IDs(all))
+                            || !IDs(personStore.getPartners(person)).equals(IDs(partners))) {
+                        correct = false;
+                        c.output("Relatives of " + person.getID() + " differ after " + i + " changes");
+                    }
+                }
+            }
+
+            // the same set is given each time until a link changes and it
+            // can't be changed
+            Person person = null;
+            for (Person someone: personStore.getEveryoneByID()) {
+                if (person == null && !personStore.getSiblings(someone).isEmpty()) {
+                    person = someone;
+                }
+            }
+            boolean cached = personStore.getSiblings(person) == personStore.getSiblings(person);
+            try {
+                personStore.getSiblings(person).clear();
+                cached = false;
+            } catch (UnsupportedOperationException e) {}
+            if (!cached) {
+                correct = false;
+                c.output("Siblings should be the same unmodifiable set each time");
+            }
+            c.result(correct);
+        } catch (IOException | DataFormatException | IllegalArgumentException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void families() {
+        Controller c = new Controller("getFamily", "Checks family groups match those found by following links as people are added, linked, unlinked and deleted");
+
+        try {
+            PersonStore personStore = emptyStore();
+            Random random = new Random(4);
+            for (int i = 0; i < 60; i++) {
+                addPerson(personStore, "Person" + i, i % 2 == 0);
+            }
+
+            boolean correct = true;
+            for (int i = 0; i < 200; i++) {
+                int ID = 3 + random.nextInt(58);
+                Integer fatherID = random.nextInt(3) == 0 ? null : 1 + 2 * random.nextInt((ID - 1) / 2);
+                Integer motherID = random.nextInt(3) == 0 ? null : 2 + 2 * random.nextInt((ID - 1) / 2);
+                if (personStore.find(ID) != null
+                        && (fatherID == null || personStore.find(fatherID) != null)
+                        && (motherID == null || personStore.find(motherID) != null)) {
+                    personStore.link(ID, motherID, fatherID);
+                }
+                if (i % 50 == 49) {
+                    for (Person person: personStore.getEveryoneByID()) {
+                        if (person.getNumChildren() == 0) {
+                            personStore.delete(person.getID());
+                            break;
+                        }
+                    }
+                    addPerson(personStore, "Late" + i, null);
+                }
+
+                // check part way through so joining groups without
+                // rebuilding is tested too
+                if (i % 20 != 19) {
+                    continue;
+                }
+                int total = 0;
+                for (Person person: personStore.getEveryoneByID()) {
+
+                    // find everyone linked to them
+                    HashSet<Person> family = new HashSet<>();
+                    ArrayList<Person> toVisit = new ArrayList<>();
+                    family.add(person);
+                    toVisit.add(person);
+                    while (!toVisit.isEmpty()) {
+                        Person relative = toVisit.remove(toVisit.size() - 1);
+                        ArrayList<Person> linked = new ArrayList<>(personStore.getChildren(relative));
+                        linked.add(personStore.getMother(relative));
+                        linked.add(personStore.getFather(relative));
+                        for (Person other: linked) {
+                            if (other != null && family.add(other)) {
+                                toVisit.add(other);
+                            }
+                        }
+                    }
+                    int lowestID = Integer.MAX_VALUE;
+                    Person most = null;
+                    for (Person member: family) {
+                        lowestID = Math.min(lowestID, member.getID());
+                        int count = countDescendants(personStore, member);
+                        if (most == null || count > countDescendants(personStore, most)
+                                || (count == countDescendants(personStore, most) && member.getID() < most.getID())) {
+                            most = member;
+                        }
+                    }
+
+                    if (personStore.getFamilyID(person) != lowestID
+                            || personStore.getFamilySize(person) != family.size()
+                            || !IDs(personStore.getFamily(person)).equals(IDs(family))
+                            || personStore.getFamilySizes().get(lowestID) != family.size()
+                            || personStore.personWithMostDescendants(person) != most) {
+                        correct = false;
+                        c.output("Family of " + person.getID() + " differs after " + i + " changes");
+                    }
+                }
+                for (int size: personStore.getFamilySizes().values()) {
+                    total += size;
+                }
+                if (total != personStore.getEveryoneByID().size()) {
+                    correct = false;
+                    c.outputExpected(String.valueOf(personStore.getEveryoneByID().size()), String.valueOf(total), "total size of families");
+                }
+            }
+            c.result(correct && personStore.getFamilySizes().size() > 1);
+        } catch (IOException | DataFormatException | IllegalArgumentException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void writeRead() {
+        Controller c = new Controller("write", "Checks people and links are the same after writing and reading back");
+
+        try {
+            String filename = tempFilename();
+            PersonStore personStore = new PersonStore(filename);
+            int mother = addPerson(personStore, "Mother", false);
+            int father = addPerson(personStore, "Father", true);
+            int child = personStore.add("Child", "Middle, Names", "Test", null, 2000, 7, 14, true, null, null, null, "Notes with, commas");
+            personStore.link(child, mother, father);
+            personStore.write();
+
+            PersonStore readBack = new PersonStore(filename);
+            boolean allCorrect = readBack.getEveryoneByID().size() == 3;
+            for (Person person: personStore.getEveryoneByID()) {
+                Person other = readBack.find(person.getID());
+                if (other == null || !person.toFile().equals(other.toFile())) {
+                    allCorrect = false;
+                    c.outputExpected(person.toFile(), other == null ? "null" : other.toFile(), "find(" + person.getID() + ")");
+                }
+            }
+            if (!readBack.getChildren(readBack.find(mother)).contains(readBack.find(child))) {
+                allCorrect = false;
+                c.output("Child was not linked to their mother after reading");
+            }
+            c.result(allCorrect);
+        } catch (IOException | DataFormatException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void writeStreamed() {
+        Controller c = new Controller("write", "Checks streaming to a writer gives the headings then one line per person");
+
+        try {
+            PersonStore personStore = emptyStore();
+            for (int i = 0; i < 100; i++) {
+                addPerson(personStore, "Person" + i, i % 2 == 0);
+            }
+            StringWriter writer = new StringWriter();
+            personStore.write(writer);
+            String[] lines = writer.toString().split(System.lineSeparator());
+            boolean correct = lines.length == 101 && lines[0].startsWith("ID,") && lines[100].equals(personStore.find(100).toFile());
+            if (!correct) {
+                c.output("Got " + lines.length + " lines");
+            }
+            c.result(correct);
+        } catch (IOException | DataFormatException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void journalReplay() {
+        Controller c = new Controller("save", "Checks changes saved to the journal are replayed when read without writing the file");
+
+        try {
+            String filename = tempFilename();
+            PersonStore personStore = new PersonStore(filename);
+            personStore.useJournal();
+            int mother = addPerson(personStore, "Mother", false);
+            int father = addPerson(personStore, "Father", true);
+            int child = addPerson(personStore, "Child", null);
+            int deleted = addPerson(personStore, "Deleted", null);
+            personStore.link(child, mother, null);
+            personStore.editAll(child, "Renamed", "", "Test", true, 1990, 1, 2, true, null, null, null, "Edited", mother, father);
+            personStore.delete(deleted);
+            personStore.save();
+
+            boolean allCorrect = !new File(filename).exists() && new File(filename + ".journal").exists();
+            PersonStore readBack = new PersonStore(filename);
+            if (readBack.find(deleted) != null || readBack.getEveryoneByID().size() != 3) {
+                allCorrect = false;
+                c.output("Wrong people after replaying");
+            }
+            if (!personStore.find(child).toFile().equals(readBack.find(child).toFile())) {
+                allCorrect = false;
+                c.outputExpected(personStore.find(child).toFile(), readBack.find(child).toFile(), "find(" + child + ")");
+            }
+            if (!readBack.getChildren(readBack.find(father)).contains(readBack.find(child))) {
+                allCorrect = false;
+                c.output("Child was not linked to their father after replaying");
+            }
+
+            // writing folds the journal into the file and empties it
+            personStore.write();
+            allCorrect &= new File(filename + ".journal").length() == 0;
+            allCorrect &= new PersonStore(filename).find(child).toFile().equals(personStore.find(child).toFile());
+            c.result(allCorrect);
+        } catch (IOException | DataFormatException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void journalCompactFailure() {
+        Controller c = new Controller("save", "Checks a failure to fold the journal into the file is thrown by the next save");
+
+        try {
+            String filename = tempFilename();
+            PersonStore personStore = new PersonStore(filename);
+
+            // a directory that isn't empty can't be replaced by the file
+            File directory = new File(filename);
+            directory.mkdir();
+            File blocker = new File(directory, "blocker");
+            blocker.createNewFile();
+
+            try {
+                personStore.useJournal();
+                for (int i = 0; i < 1000; i++) {
+                    addPerson(personStore, "Person" + i, null);
+                }
+                personStore.save();
+
+                // compacting happens in the background so wait for it
+                boolean thrown = false;
+                for (int i = 0; i < 100 && !thrown; i++) {
+                    try {
+                        Thread.sleep(50);
+                        personStore.save();
+                    } catch (IOException e) {
+                        thrown = true;
+                    }
+                }
+                if (!thrown) {
+                    c.output("No save threw after compacting failed");
+                }
+
+                // once unblocked, the next save doesn't throw again and
+                // compacting is tried again, folding in all the changes
+                blocker.delete();
+                directory.delete();
+                personStore.save();
+                File journal = new File(filename + ".journal");
+                for (int i = 0; i < 100 && journal.length() > 0; i++) {
+                    Thread.sleep(50);
+                }
+                boolean correct = thrown && journal.length() == 0
+                    && new PersonStore(filename).getEveryoneByID().size() == 1000;
+                c.result(correct);
+            } finally {
+                blocker.delete();
+                directory.delete();
+                new File(filename + ".tmp").delete();
+            }
+        } catch (IOException | DataFormatException | InterruptedException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void journalCompactReopened() {
+        Controller c = new Controller("save", "Checks records left in the journal from before count towards compacting it");
+
+        try {
+            String filename = tempFilename();
+            PersonStore personStore = new PersonStore(filename);
+            personStore.useJournal();
+            for (int i = 0; i < 999; i++) {
+                addPerson(personStore, "Person" + i, null);
+            }
+            personStore.save();
+
+            // one more record after reopening makes it long enough
+            PersonStore reopened = new PersonStore(filename);
+            reopened.useJournal();
+            addPerson(reopened, "Reopened", null);
+            reopened.save();
+
+            // compacting happens in the background so wait for it
+            File journal = new File(filename + ".journal");
+            for (int i = 0; i < 100 && journal.length() > 0; i++) {
+                Thread.sleep(50);
+            }
+            boolean correct = journal.length() == 0 && new File(filename).exists()
+                && new PersonStore(filename).getEveryoneByID().size() == 1000;
+            c.result(correct);
+        } catch (IOException | DataFormatException | InterruptedException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void writeBehind() {
+        Controller c = new Controller("save", "Checks concurrent saves when writing behind only return once their change is in the file and share writes");
+
+        try {
+            String filename = tempFilename();
+            PersonStore personStore = new PersonStore(filename);
+            personStore.useWriteBehind(200);
+            Thread[] threads = new Thread[20];
+            boolean[] saved = new boolean[threads.length];
+            CountDownLatch start = new CountDownLatch(1);
+            for (int i = 0; i < threads.length; i++) {
+                final int index = i;
+                threads[i] = new Thread(() -> {
+                    try {
+                        start.await();
+                        int ID = addPerson(personStore, "Person" + index, null);
+                        personStore.save();
+                        saved[index] = new PersonStore(filename).find(ID) != null;
+                    } catch (IOException | DataFormatException | InterruptedException e) {
+                        c.output(e.toString());
+                    }
+                });
+                threads[i].start();
+            }
+            start.countDown();
+
+            boolean allCorrect = true;
+            for (int i = 0; i < threads.length; i++) {
+                threads[i].join();
+                allCorrect &= saved[i];
+            }
+
+            // the saves all arrive within one window so should share a
+            // write or two rather than having one each
+            int numWrites = personStore.getNumWrites();
+            if (numWrites > 3) {
+                allCorrect = false;
+                c.outputExpected("at most 3", String.valueOf(numWrites), "number of writes");
+            }
+            c.result(allCorrect);
+        } catch (IOException | DataFormatException | InterruptedException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void snapshot() {
+        Controller c = new Controller("write", "Checks the binary snapshot is read only while the file is the one it was written from");
+
+        try {
+            String filename = tempFilename();
+            Path file = Path.of(filename);
+            PersonStore personStore = new PersonStore(filename);
+            int mother = addPerson(personStore, "Mother", false);
+            int child = personStore.add("Child", "", "Test", true, 1950, 3, 4, false, 2000, 5, 6, "Notes");
+            personStore.link(child, mother, null);
+            personStore.write();
+            String written = Files.readString(file);
+            FileTime modified = Files.getLastModifiedTime(file);
+
+            // make the file unreadable but the same size and last modified
+            // time so only the snapshot can be read
+            Files.writeString(file, "x".repeat(written.length()));
+            Files.setLastModifiedTime(file, modified);
+            PersonStore fromSnapshot = new PersonStore(filename);
+            boolean allCorrect = fromSnapshot.find(child).toFile().equals(personStore.find(child).toFile())
+                && fromSnapshot.getChildren(fromSnapshot.find(mother)).contains(fromSnapshot.find(child));
+            if (!allCorrect) {
+                c.output("Snapshot not read when the file was unchanged");
+            }
+
+            // put back an older copy of the file, still older than the
+            // snapshot, and the snapshot is ignored
+            Files.writeString(file, written);
+            addPerson(personStore, "Later", null);
+            personStore.write();
+            Files.writeString(file, written);
+            Files.setLastModifiedTime(file, modified);
+            PersonStore fromFile = new PersonStore(filename);
+            if (fromFile.getEveryoneByID().size() != 2) {
+                allCorrect = false;
+                c.outputExpected("2", String.valueOf(fromFile.getEveryoneByID().size()), "number of people after restoring an older file");
+            }
+
+            // a corrupt snapshot is ignored
+            personStore.write();
+            Files.write(Path.of(filename + ".bin"), new byte[] {1, 2, 3});
+            allCorrect &= new PersonStore(filename).find(child).toFile().equals(personStore.find(child).toFile());
+            c.result(allCorrect);
+        } catch (IOException | DataFormatException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void writeInPlace() {
+        Controller c = new Controller("write", "Checks people loaded from the file or the snapshot can be written straight back over them");
+
+        try {
+            String filename = tempFilename();
+            PersonStore personStore = new PersonStore(filename);
+            int mother = addPerson(personStore, "Mother", false);
+            int child = addPerson(personStore, "Child", true);
+            personStore.link(child, mother, null);
+            personStore.write();
+
+            // load from the file then write back over it and its snapshot
+            Files.delete(Path.of(filename + ".bin"));
+            PersonStore fromFile = new PersonStore(filename);
+            addPerson(fromFile, "FromFile", null);
+            fromFile.write();
+
+            // load from the snapshot then write back over them again
+            PersonStore fromSnapshot = new PersonStore(filename);
+            addPerson(fromSnapshot, "FromSnapshot", null);
+            fromSnapshot.write();
+
+            PersonStore readBack = new PersonStore(filename);
+            boolean allCorrect = readBack.getEveryoneByID().size() == 4
+                && readBack.getChildren(readBack.find(mother)).contains(readBack.find(child));
+            if (!allCorrect) {
+                c.outputExpected("4", String.valueOf(readBack.getEveryoneByID().size()), "number of people");
+            }
+            c.result(allCorrect);
+        } catch (IOException | DataFormatException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+}
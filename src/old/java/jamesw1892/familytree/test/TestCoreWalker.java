@@ -0,0 +1,207 @@
+package test;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+
+import core.Person;
+import core.PersonStore;
+import core.Walker;
+
+public class TestCoreWalker {
+
+    public TestCoreWalker() {
+        System.out.println(System.lineSeparator() + "Testing Core.Walker:");
+
+        // Call the tests to run
+        walkOrder();
+        walkMaxDepth();
+        walkDeep();
+        walkParallel();
+        walkParallelMaxDepth();
+    }
+
+    /**
+     * Return a store of three generations: a mother and father with two
+     * children, the first of whom has a child with someone else
+     */
+    private static PersonStore family() throws IOException, DataFormatException {
+        PersonStore personStore = TestCorePersonStore.emptyStore();
+        int mother = TestCorePersonStore.addPerson(personStore, "Mother", false);
+        int father = TestCorePersonStore.addPerson(personStore, "Father", true);
+        int daughter = TestCorePersonStore.addPerson(personStore, "Daughter", false);
+        int son = TestCorePersonStore.addPerson(personStore, "Son", true);
+        int husband = TestCorePersonStore.addPerson(personStore, "Husband", true);
+        int grandchild = TestCorePersonStore.addPerson(personStore, "Grandchild", null);
+        personStore.link(daughter, mother, father);
+        personStore.link(son, mother, father);
+        personStore.link(grandchild, daughter, husband);
+        return personStore;
+    }
+
+    /**
+     * Return the names and depths of everyone entered and left as brackets
+     */
+    private static String walkToString(PersonStore personStore, Person start, Walker.Direction direction, int maxDepth) {
+        StringBuilder out = new StringBuilder();
+        new Walker(personStore, direction, maxDepth).walk(start, new Walker.Visitor() {
+            public boolean enter(Person person, int depth) {
+                out.append("(").append(person.getNameFirst()).append(depth);
+                return true;
+            }
+
+            public void leave(Person person, int depth) {
+                out.append(")");
+            }
+        });
+        return out.toString();
+    }
+
+    private static void walkOrder() {
+        Controller c = new Controller("walk", "Checks people are entered depth first and left after everyone through them");
+
+        try {
+            PersonStore personStore = family();
+            String down = walkToString(personStore, personStore.find(1), Walker.Direction.DOWN, Walker.UNLIMITED);
+            String up = walkToString(personStore, personStore.find(6), Walker.Direction.UP, Walker.UNLIMITED);
+
+            boolean correct = true;
+            if (!down.equals("(Mother0(Daughter1(Grandchild2))(Son1))")) {
+                correct = false;
+                c.outputExpected("(Mother0(Daughter1(Grandchild2))(Son1))", down, "walk down");
+            }
+            if (!up.equals("(Grandchild0(Daughter1(Mother2)(Father2))(Husband1))")) {
+                correct = false;
+                c.outputExpected("(Grandchild0(Daughter1(Mother2)(Father2))(Husband1))", up, "walk up");
+            }
+            c.result(correct);
+        } catch (IOException | DataFormatException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void walkMaxDepth() {
+        Controller c = new Controller("walk", "Checks the walk goes no further than the maximum depth");
+
+        try {
+            PersonStore personStore = family();
+            String none = walkToString(personStore, personStore.find(1), Walker.Direction.DOWN, 0);
+            String one = walkToString(personStore, personStore.find(1), Walker.Direction.DOWN, 1);
+            c.result(none.equals("(Mother0)") && one.equals("(Mother0(Daughter1)(Son1))"));
+        } catch (IOException | DataFormatException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void walkDeep() {
+        Controller c = new Controller("walk", "Checks walking a line of many generations doesn't overflow the stack");
+
+        try {
+            // write the line to the file directly since linking each
+            // generation one by one would be slow
+            String filename = TestCorePersonStore.tempFilename();
+            int generations = 50000;
+            PrintWriter out = new PrintWriter(filename);
+            out.println("ID,First Name,Middle Names,Last Name,Is Male,Birth Year,Birth Month,Birth Day,Is Living,Death Year,Death Month,Death Day,Mother ID,Father ID,Notes");
+            for (int ID = 1; ID <= generations; ID++) {
+                out.println(ID + ",Person,,Test,false,,,,,,,," + (ID == 1 ? "" : ID - 1) + ",,");
+            }
+            out.close();
+            PersonStore personStore = new PersonStore(filename);
+
+            int[] deepest = {0};
+            new Walker(personStore, Walker.Direction.DOWN, Walker.UNLIMITED).walk(personStore.find(1), new Walker.Visitor() {
+                public boolean enter(Person person, int depth) {
+                    deepest[0] = Math.max(deepest[0], depth);
+                    return true;
+                }
+
+                public void leave(Person person, int depth) {}
+            });
+            boolean correct = deepest[0] == generations - 1
+                && personStore.numDescendants(personStore.find(2)) == generations - 2;
+            if (!correct) {
+                c.outputExpected(String.valueOf(generations - 1), String.valueOf(deepest[0]), "deepest depth");
+            }
+            c.result(correct);
+        } catch (IOException | DataFormatException | StackOverflowError e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void walkParallel() {
+        Controller c = new Controller("walkParallel", "Checks everyone reached is visited exactly once");
+
+        try {
+            PersonStore personStore = family();
+            Set<Integer> visited = ConcurrentHashMap.newKeySet();
+            boolean[] repeated = {false};
+            new Walker(personStore, Walker.Direction.DOWN, Walker.UNLIMITED).walkParallel(personStore.find(2), (person, depth) -> {
+                if (!visited.add(person.getID())) {
+                    repeated[0] = true;
+                }
+                return true;
+            });
+
+            HashSet<Integer> expected = new HashSet<>();
+            Collections.addAll(expected, 2, 3, 4, 6);
+            boolean correct = !repeated[0] && visited.equals(expected);
+            if (!correct) {
+                c.outputExpected(expected.toString(), visited.toString(), "visited");
+            }
+            c.result(correct);
+        } catch (IOException | DataFormatException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void walkParallelMaxDepth() {
+        Controller c = new Controller("walkParallel", "Checks people are visited at the fewest generations they can be reached in and no further than the maximum depth");
+
+        try {
+            // the great grandchild is two generations from the father
+            // through his daughter and three through his son, which is
+            // reached first when walking depth first
+            PersonStore personStore = TestCorePersonStore.emptyStore();
+            int mother = TestCorePersonStore.addPerson(personStore, "Mother", false);
+            int father = TestCorePersonStore.addPerson(personStore, "Father", true);
+            int daughter = TestCorePersonStore.addPerson(personStore, "Daughter", false);
+            int son = TestCorePersonStore.addPerson(personStore, "Son", true);
+            int grandson = TestCorePersonStore.addPerson(personStore, "Grandson", true);
+            int greatGrandchild = TestCorePersonStore.addPerson(personStore, "GreatGrandchild", false);
+            int greatGreatGrandchild = TestCorePersonStore.addPerson(personStore, "GreatGreatGrandchild", null);
+            personStore.link(daughter, mother, father);
+            personStore.link(son, mother, father);
+            personStore.link(grandson, null, son);
+            personStore.link(greatGrandchild, daughter, grandson);
+            personStore.link(greatGreatGrandchild, greatGrandchild, null);
+
+            String expected = "{" + father + "=0, " + daughter + "=1, " + son + "=1, " + grandson + "=2, "
+                            + greatGrandchild + "=2, " + greatGreatGrandchild + "=3}";
+            boolean correct = true;
+            for (int run = 0; run < 100 && correct; run++) {
+                ConcurrentHashMap<Integer, Integer> depths = new ConcurrentHashMap<>();
+                new Walker(personStore, Walker.Direction.DOWN, 3).walkParallel(personStore.find(father), (person, depth) -> {
+                    depths.put(person.getID(), depth);
+                    return true;
+                });
+                if (!depths.toString().equals(expected)) {
+                    correct = false;
+                    c.outputExpected(expected, depths.toString(), "depths");
+                }
+            }
+            c.result(correct);
+        } catch (IOException | DataFormatException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+}
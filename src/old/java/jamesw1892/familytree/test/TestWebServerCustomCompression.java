@@ -0,0 +1,57 @@
+package test;
+
+import web_server_custom.Compression;
+import web_server_custom.Header;
+
+public class TestWebServerCustomCompression {
+
+    public TestWebServerCustomCompression() {
+        System.out.println(System.lineSeparator() + "Testing WebServerCustom.Compression:");
+
+        // Call the tests to run
+        chooseEncoding();
+    }
+
+    /**
+     * Return the encoding chosen for a request with the given Accept-Encoding,
+     * or none if null
+     */
+    private static String choose(String acceptEncoding) {
+        String request = "GET / HTTP/1.1\r\n" + (acceptEncoding == null ? "" : "Accept-Encoding: " + acceptEncoding + "\r\n") + "\r\n";
+        return Compression.chooseEncoding(new Header(request, false));
+    }
+
+    private static void chooseEncoding() {
+        Controller c = new Controller("chooseEncoding", "Checks the best accepted compression is chosen from names, q-values and *");
+
+        String[][] cases = {
+            // Accept-Encoding, expected
+            {null, null},
+            {"", null},
+            {"gzip, deflate, br", Compression.GZIP},
+            {"deflate", Compression.DEFLATE},
+            {"x-gzip", Compression.GZIP},
+            {"GZIP", Compression.GZIP},
+            {"br", null},
+            {"gzip;q=0.5, deflate;q=0.8", Compression.DEFLATE},
+            {"gzip;q=0.8, deflate;q=0.8", Compression.GZIP},
+            {"gzip;q=0, deflate", Compression.DEFLATE},
+            {"gzip;q=0, deflate;q=0", null},
+            {"gzip;q=nonsense", null},
+            {"*", Compression.GZIP},
+            {"*;q=0", null},
+            {"gzip;q=0, *", Compression.DEFLATE},
+            {"*;q=0, deflate", Compression.DEFLATE},
+            {"identity, *;q=0", null},
+        };
+        boolean allCorrect = true;
+        for (String[] testCase: cases) {
+            String got = choose(testCase[0]);
+            if (testCase[1] == null ? got != null : !testCase[1].equals(got)) {
+                allCorrect = false;
+                c.outputExpected(String.valueOf(testCase[1]), String.valueOf(got), "Accept-Encoding: " + testCase[0]);
+            }
+        }
+        c.result(allCorrect);
+    }
+}
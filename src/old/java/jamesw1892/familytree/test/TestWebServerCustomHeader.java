@@ -0,0 +1,102 @@
+package test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import web_server_custom.Header;
+
+public class TestWebServerCustomHeader {
+
+    public TestWebServerCustomHeader() {
+        System.out.println(System.lineSeparator() + "Testing WebServerCustom.Header:");
+
+        // Call the tests to run
+        contentLengthAnyCase();
+        contentTypeAnyCase();
+        contentLengthNegative();
+        transferEncoding();
+    }
+
+    private static InputStream stream(String requests) {
+        return new ByteArrayInputStream(requests.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void contentLengthAnyCase() {
+        Controller c = new Controller("Header", "Checks data is read whatever case Content-Length is given in so the next request on the connection starts after it");
+
+        try {
+            InputStream in = stream("POST /people/add HTTP/1.1\r\ncontent-length: 7\r\n\r\na=1&b=2"
+                                  + "GET /people HTTP/1.1\r\n\r\n");
+            Header first = new Header(in, false);
+            Header second = new Header(in, false);
+
+            boolean correct = true;
+            if (!first.getDataStr().equals("a=1&b=2")) {
+                correct = false;
+                c.outputExpected("a=1&b=2", first.getDataStr(), "first data");
+            }
+            if (!second.getFirstLine().equals("GET /people HTTP/1.1")) {
+                correct = false;
+                c.outputExpected("GET /people HTTP/1.1", second.getFirstLine(), "second first line");
+            }
+            c.result(correct);
+        } catch (IOException | IllegalArgumentException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void contentTypeAnyCase() {
+        Controller c = new Controller("Header", "Checks form data is decoded whatever case Content-Type is given in");
+
+        try {
+            Header header = new Header(stream("POST /people/add HTTP/1.1\r\ncontent-type: application/x-www-form-urlencoded\r\n"
+                                            + "Content-Length: 13\r\n\r\nname=Jo+Smith"), false);
+            String got = header.getData().get("name");
+            boolean correct = "Jo Smith".equals(got);
+            if (!correct) {
+                c.outputExpected("Jo Smith", got, "getData().get(\"name\")");
+            }
+            c.result(correct);
+        } catch (IOException | IllegalArgumentException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void contentLengthNegative() {
+        Controller c = new Controller("Header", "Checks a negative Content-Length is rejected rather than taken as no data");
+
+        try {
+            new Header(stream("POST /people/add HTTP/1.1\r\nContent-Length: -5\r\n\r\n"), false);
+            c.output("No exception thrown");
+            c.fail();
+        } catch (IllegalArgumentException e) {
+            c.pass();
+        } catch (IOException e) {
+            c.output(e.toString());
+            c.fail();
+        }
+    }
+
+    private static void transferEncoding() {
+        Controller c = new Controller("Header", "Checks data sent in chunks is rejected rather than read as the next request");
+
+        boolean allCorrect = true;
+        for (boolean makeWork: new boolean[] {false, true}) {
+            try {
+                new Header(stream("POST /people/add HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n3\r\na=b\r\n0\r\n\r\n"), makeWork);
+                allCorrect = false;
+                c.output("No exception thrown when makeWork is " + makeWork);
+            } catch (IllegalArgumentException e) {
+                // expected
+            } catch (IOException e) {
+                allCorrect = false;
+                c.output(e.toString());
+            }
+        }
+        c.result(allCorrect);
+    }
+}
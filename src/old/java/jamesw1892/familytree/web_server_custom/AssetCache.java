@@ -0,0 +1,246 @@
+package web_server_custom;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Keeps every file in the web directory in memory so they are read from disk
+ * once rather than for every request, reading a file again whenever it
+ * changes on disk. Each file has a version worked out from its content,
+ * which is sent as its ETag so the user can ask whether their copy is still
+ * current, and put in links to it so a page always links the current one and
+ * the user can keep it for as long as they like.
+ *
+ * Files worth compressing are also kept compressed with each compression
+ * users may accept, done once when they are read rather than per request.
+ */
+class AssetCache {
+
+    /**
+     * A single file with everything needed to send it
+     */
+    static class Asset {
+        private final byte[] content;
+        private final String contentType;
+        private final String version;
+        private final byte[] gzipped;
+        private final byte[] deflated;
+
+        Asset(byte[] content, String contentType, String version, Compression compression) {
+            this.content = content;
+            this.contentType = contentType;
+            this.version = version;
+            this.gzipped = compressed(content, contentType, compression, Compression.GZIP);
+            this.deflated = compressed(content, contentType, compression, Compression.DEFLATE);
+        }
+
+        /**
+         * Return the given content compressed with the given encoding if it
+         * is worth compressing and comes out smaller, otherwise null
+         */
+        private static byte[] compressed(byte[] content, String contentType, Compression compression, String encoding) {
+            if (!compression.shouldCompress(content.length, contentType)) {
+                return null;
+            }
+            byte[] compressed = compression.compress(content, encoding);
+            return compressed.length < content.length ? compressed : null;
+        }
+
+        byte[] getContent() {
+            return this.content;
+        }
+
+        /**
+         * Return the content compressed with the given encoding or null if
+         * there is no such variant, as there never is for a null encoding
+         */
+        byte[] getContent(String encoding) {
+            if (Compression.GZIP.equals(encoding)) {
+                return this.gzipped;
+            }
+            if (Compression.DEFLATE.equals(encoding)) {
+                return this.deflated;
+            }
+            return null;
+        }
+
+        String getContentType() {
+            return this.contentType;
+        }
+
+        /**
+         * Return a short string that changes whenever the content does
+         */
+        String getVersion() {
+            return this.version;
+        }
+
+        /**
+         * Return the strong ETag for the content
+         */
+        String getETag() {
+            return "\"" + this.version + "\"";
+        }
+
+        /**
+         * Return the strong ETag for the content compressed with the given
+         * encoding, which differs from the uncompressed one since the bytes
+         * do, or for the content itself if the encoding is null
+         */
+        String getETag(String encoding) {
+            return encoding == null ? this.getETag() : "\"" + this.version + "-" + encoding + "\"";
+        }
+
+        /**
+         * Return whether the given ETag is for this version of the content,
+         * compressed or not
+         */
+        boolean hasETag(String eTag) {
+            return eTag.equals(this.getETag()) || eTag.equals(this.getETag(Compression.GZIP)) || eTag.equals(this.getETag(Compression.DEFLATE));
+        }
+    }
+
+    private final Path directory;
+    private final Compression compression;
+    private final ConcurrentHashMap<String, Asset> assets;
+    private WatchService watchService;
+
+    /**
+     * Load every file in the given directory and watch it for changes. If it
+     * doesn't exist, nothing is loaded.
+     * @param directory
+     * @param compression When and how much to compress them
+     * @throws IOException
+     */
+    AssetCache(String directory, Compression compression) throws IOException {
+        this.directory = Path.of(directory);
+        this.compression = compression;
+        this.assets = new ConcurrentHashMap<>();
+        if (!Files.isDirectory(this.directory)) {
+            return;
+        }
+
+        // start watching before loading so no change is missed in between
+        this.watchService = this.directory.getFileSystem().newWatchService();
+        this.directory.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        this.loadAll();
+
+        Thread watcher = new Thread(this::watch, "Asset watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Return the file at the given path, such as "web/Styles.css", or null if
+     * there isn't one
+     */
+    Asset get(String filePath) {
+        return this.assets.get(Path.of(filePath).getFileName().toString());
+    }
+
+    /**
+     * Stop watching for changes
+     * @throws IOException
+     */
+    void close() throws IOException {
+        if (this.watchService != null) {
+            this.watchService.close();
+        }
+    }
+
+    private void loadAll() throws IOException {
+        try (Stream<Path> files = Files.list(this.directory)) {
+            for (Path file: (Iterable<Path>) files::iterator) {
+                this.load(file.getFileName());
+            }
+        }
+    }
+
+    /**
+     * Read the file with the given name into memory or forget it if it is no
+     * longer there
+     */
+    private void load(Path name) {
+        Path file = this.directory.resolve(name);
+        try {
+            if (Files.isRegularFile(file)) {
+                byte[] content = Files.readAllBytes(file);
+                this.assets.put(name.toString(), new Asset(content, contentType(name.toString()), version(content), this.compression));
+                return;
+            }
+        } catch (IOException e) {
+
+            // it may be being replaced, in which case another event follows
+            e.printStackTrace();
+        }
+        this.assets.remove(name.toString());
+    }
+
+    /**
+     * Read files again as they change until closed
+     */
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = this.watchService.take();
+                for (WatchEvent<?> event: key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        this.loadAll();
+                    } else {
+                        this.load((Path) event.context());
+                    }
+                }
+                if (!key.reset()) {
+                    return;
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // closed
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String contentType(String name) {
+        String extension = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+        switch (extension) {
+            case "css":
+                return "text/css; charset=UTF-8";
+            case "js":
+                return "text/javascript; charset=UTF-8";
+            case "html":
+                return "text/html; charset=UTF-8";
+            case "ico":
+                return "image/x-icon";
+            default:
+                return "application/octet-stream";
+        }
+    }
+
+    /**
+     * Return the first 16 hex digits of the SHA-256 hash of the given content
+     */
+    private static String version(byte[] content) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder version = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                version.append(String.format("%02x", hash[i]));
+            }
+            return version.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+}
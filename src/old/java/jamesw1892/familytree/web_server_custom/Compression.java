@@ -0,0 +1,148 @@
+package web_server_custom;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * When and how much to compress responses, and which compression each user
+ * accepts. Only text is compressed, since images and the like are usually
+ * compressed already, and only if it is at least the threshold size since
+ * compressing small responses costs more time than it saves.
+ */
+public class Compression {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    static final int DEFAULT_THRESHOLD = 1024;
+    static final int DEFAULT_LEVEL = 6;
+
+    private final int threshold;
+    private final int level;
+
+    /**
+     * @param threshold The smallest number of bytes to compress
+     * @param level From 1 (fastest) to 9 (smallest)
+     */
+    Compression(int threshold, int level) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("The compression threshold can't be negative");
+        }
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("The compression level must be between " + Deflater.BEST_SPEED + " and " + Deflater.BEST_COMPRESSION);
+        }
+        this.threshold = threshold;
+        this.level = level;
+    }
+
+    /**
+     * Return settings that never compress anything
+     */
+    static Compression none() {
+        return new Compression(Integer.MAX_VALUE, DEFAULT_LEVEL);
+    }
+
+    /**
+     * Return whether content of the given size and type should be compressed
+     */
+    boolean shouldCompress(long size, String contentType) {
+        return size >= this.threshold && (contentType.startsWith("text/") || contentType.contains("javascript"));
+    }
+
+    /**
+     * Return the best compression the given request accepts, gzip then
+     * deflate, or null if it accepts neither
+     */
+    public static String chooseEncoding(Header header) {
+        String acceptEncoding = header.getField("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return null;
+        }
+        double gzip = 0;
+        double deflate = 0;
+        double other = 0;
+        boolean gzipGiven = false;
+        boolean deflateGiven = false;
+        for (String part: acceptEncoding.split(",")) {
+
+            // each is a name optionally followed by ";q=" and how much it is
+            // wanted from 0 to 1
+            String[] nameAndParameters = part.trim().split(";");
+            String name = nameAndParameters[0].trim().toLowerCase();
+            double quality = 1;
+            for (int i = 1; i < nameAndParameters.length; i++) {
+                String parameter = nameAndParameters[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (name.equals(GZIP) || name.equals("x-gzip")) {
+                gzip = quality;
+                gzipGiven = true;
+            } else if (name.equals(DEFLATE)) {
+                deflate = quality;
+                deflateGiven = true;
+            } else if (name.equals("*")) {
+                other = quality;
+            }
+        }
+        if (!gzipGiven) {
+            gzip = other;
+        }
+        if (!deflateGiven) {
+            deflate = other;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        if (deflate > 0) {
+            return DEFLATE;
+        }
+        return null;
+    }
+
+    /**
+     * Return a stream that compresses what is written to it with the given
+     * encoding into the given stream. Closing it finishes the compressed
+     * data and closes the given stream.
+     */
+    OutputStream compressor(OutputStream out, String encoding) throws IOException {
+        if (encoding.equals(GZIP)) {
+            return new GZIPOutputStream(out, 8192) {
+                {
+                    this.def.setLevel(Compression.this.level);
+                }
+            };
+        }
+        return new DeflaterOutputStream(out, new Deflater(this.level), 8192) {
+
+            // a deflater given to the stream isn't ended by it
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    this.def.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Return the given content compressed with the given encoding
+     */
+    byte[] compress(byte[] content, String encoding) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 4 + 64);
+        try (OutputStream compressor = this.compressor(out, encoding)) {
+            compressor.write(content);
+        } catch (IOException e) {
+            throw new IllegalStateException("Writing to memory can't fail", e);
+        }
+        return out.toByteArray();
+    }
+}
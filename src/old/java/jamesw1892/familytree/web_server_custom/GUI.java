@@ -1,17 +1,21 @@
 package web_server_custom;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.TreeSet;
-import java.util.zip.DataFormatException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
 
 import core.Person;
 import core.PersonStore;
+import core.Relationship;
 import core.Util;
+import core.Walker;
 
 /**
  * Constructed once by the web server to handle all requests but
@@ -19,7 +23,10 @@ import core.Util;
  */
 class GUI {
     private PersonStore personStore;
-    private static final String[] PAGES = {"Home", "People", "Birthdays"};
+    private Semaphore limiter;
+    private AssetCache assetCache;
+    private Compression compression;
+    private static final String[] PAGES = {"Home", "People", "Birthdays", "Relationship", "Families"};
     private static final String LINK_TO_PERSON = "/person/";
     private static final String LINK_TO_CSS = "/styles.css";
     private static final String PATH_TO_CSS = "web/Styles.css";
@@ -27,9 +34,55 @@ class GUI {
     private static final String PATH_TO_JS = "web/Script.js";
     private static final String LINK_TO_FAVICON = "/favicon.ico";
     private static final String PATH_TO_FAVICON = "web/favicon.ico";
+    private static final String PATH_TO_NOT_FOUND = "web/NotFound.html";
+    private static final int DEFAULT_BIRTHDAYS_PER_PAGE = 50;
+    private static final int MAX_BIRTHDAYS_PER_PAGE = 1000;
+    private static final String PATH_TO_WEB = "web";
 
-    public GUI() throws IOException, DataFormatException {
-        this.personStore = new PersonStore();
+    // Links to assets include their version so a user can keep them forever,
+    // requests without the current version must check theirs is current
+    private static final String CACHE_VERSIONED = "public, max-age=31536000, immutable";
+    private static final String CACHE_UNVERSIONED = "no-cache";
+
+    /**
+     * @param personStore The people to show, already set up with how to
+     * save changes
+     * @throws IOException If the web files can't be read
+     */
+    public GUI(PersonStore personStore) throws IOException {
+        this(personStore, new Compression(Compression.DEFAULT_THRESHOLD, Compression.DEFAULT_LEVEL));
+    }
+
+    /**
+     * @param personStore The people to show, already set up with how to
+     * save changes
+     * @param compression When and how much to compress responses
+     * @throws IOException If the web files can't be read
+     */
+    GUI(PersonStore personStore, Compression compression) throws IOException {
+        this.personStore = personStore;
+        this.limiter = null;
+        this.compression = compression;
+        this.assetCache = new AssetCache(PATH_TO_WEB, compression);
+    }
+
+    /**
+     * Return when and how much responses are compressed
+     */
+    Compression getCompression() {
+        return this.compression;
+    }
+
+    /**
+     * Handle at most the given number of requests at once, with any more
+     * waiting until one finishes. Must be called before handling requests.
+     * @param maxRequests
+     */
+    public void limitConcurrentRequests(int maxRequests) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("Must allow at least 1 request at once");
+        }
+        this.limiter = new Semaphore(maxRequests, true);
     }
 
     /**
@@ -37,10 +90,27 @@ class GUI {
      * @throws IOException
      */
     public void close() throws IOException {
+        this.assetCache.close();
         this.personStore.write();
     }
 
-    public void handleRequest(Handler handler, Header header) throws IOException {
+    public void handleRequest(Responder handler, Header header) throws IOException {
+        if (this.limiter == null) {
+            this.handleRequestUnlimited(handler, header);
+            return;
+        }
+
+        // waiting here doesn't hold an OS thread if the request is on a
+        // virtual thread
+        this.limiter.acquireUninterruptibly();
+        try {
+            this.handleRequestUnlimited(handler, header);
+        } finally {
+            this.limiter.release();
+        }
+    }
+
+    private void handleRequestUnlimited(Responder handler, Header header) throws IOException {
 
         System.out.println((new Timestamp(System.currentTimeMillis())).toString().split("\\.")[0]
             + ": Handling " + header.getMethod() + " request for " + header.getHalfURL());
@@ -58,7 +128,7 @@ class GUI {
         }
     }
 
-    private void handlePost(Handler handler, Header header) throws IOException {
+    private void handlePost(Responder handler, Header header) throws IOException {
 
         switch (header.getDirname()) {
             case "/person":
@@ -82,7 +152,7 @@ class GUI {
         }
         // If haven't already returned after calling a function then 404
         // This happens if invalid or non-existent ID or unknown page
-        handler.errorNotFound();
+        this.errorNotFound(handler);
     }
 
     private static Boolean parseBool(String b) {
@@ -114,7 +184,7 @@ class GUI {
         }
     }
 
-    private void handlePostSaveData(Handler handler, Header header, Person person) throws IOException {
+    private void handlePostSaveData(Responder handler, Header header, Person person) throws IOException {
 
         HashMap<String, String> data = header.getData();        
         String html;
@@ -138,7 +208,7 @@ class GUI {
             this.personStore.editAll(person, nameFirst, nameMiddles, nameLast,
                 isMale, birthYear, birthMonth, birthDay, isLiving, deathYear,
                 deathMonth, deathDay, notes, motherID, fatherID);
-            this.personStore.write();
+            this.personStore.save();
             html = "<h1>Success</h1><p>Saved</p>";
         } catch (IllegalArgumentException e) {
             html = "<h1>Failure</h1><p>Invalid data, not edited, try again</p><p>" + Util.encodeHtml(e.getMessage()) + "</p>";
@@ -148,7 +218,7 @@ class GUI {
         handler.returnString(generateHTML("Post Result", html));
     }
 
-    private void handlePostAddPerson(Handler handler, Header header) throws IOException {
+    private void handlePostAddPerson(Responder handler, Header header) throws IOException {
         HashMap<String, String> data = header.getData();
         String html;
 
@@ -172,7 +242,7 @@ class GUI {
                 parseInt(data.get("mother"), "Mother ID"),
                 parseInt(data.get("father"), "Father ID")
             );
-            this.personStore.write();
+            this.personStore.save();
             html = "<h1>Success</h1><p>Created</p><button onclick=\"window.location.href='" + LINK_TO_PERSON + String.valueOf(id) + "';\">View</button>";
         } catch (IllegalArgumentException e) {
             html = "<h1>Failure</h1><p>Invalid data, not created, try again</p><p>" + Util.encodeHtml(e.getMessage()) + "</p><button onclick=\"window.location.href='/people';\">Back</button>";
@@ -180,17 +250,17 @@ class GUI {
         handler.returnString(generateHTML("Post Result", html));
     }
 
-    private void handleGet(Handler handler, Header header) throws IOException {
+    private void handleGet(Responder handler, Header header) throws IOException {
 
         switch (header.getPath()) {
             case LINK_TO_CSS:
-                handler.returnFile(PATH_TO_CSS);
+                this.handleGetAsset(handler, header, PATH_TO_CSS);
                 break;
             case LINK_TO_JS:
-                handler.returnFile(PATH_TO_JS);
+                this.handleGetAsset(handler, header, PATH_TO_JS);
                 break;
             case LINK_TO_FAVICON:
-                handler.returnFile(PATH_TO_FAVICON);
+                this.handleGetAsset(handler, header, PATH_TO_FAVICON);
                 break;
             case "/people":
                 this.handleGetPeople(handler, header);
@@ -201,6 +271,12 @@ class GUI {
             case "/birthdays":
                 this.handleGetBirthdays(handler, header);
                 break;
+            case "/relationship":
+                this.handleGetRelationship(handler, header);
+                break;
+            case "/families":
+                this.handleGetFamilies(handler, header);
+                break;
             // add other pages here
             default: {
                 if (header.getDirname().equals("/person")) {
@@ -212,7 +288,57 @@ class GUI {
         }
     }
 
-    private void handleGetPerson(Handler handler, Header header) throws IOException {
+    /**
+     * Tell the user there is nothing at the path they asked for with the not
+     * found page from the asset cache
+     */
+    private void errorNotFound(Responder handler) throws IOException {
+        handler.errorNotFound(this.assetCache.get(PATH_TO_NOT_FOUND));
+    }
+
+    /**
+     * Return the given file from the asset cache, or that the user's copy is
+     * still current if the ETag they have matches
+     */
+    private void handleGetAsset(Responder handler, Header header, String filePath) throws IOException {
+        AssetCache.Asset asset = this.assetCache.get(filePath);
+        if (asset == null) {
+            this.errorNotFound(handler);
+            return;
+        }
+        String version = header.getQuery().get("v");
+        String cacheControl = asset.getVersion().equals(version) ? CACHE_VERSIONED : CACHE_UNVERSIONED;
+        String ifNoneMatch = header.getField("If-None-Match");
+        if (ifNoneMatch != null && (ifNoneMatch.equals("*") || this.matchesETag(asset, ifNoneMatch))) {
+            handler.returnNotModified(asset, cacheControl);
+        } else {
+            handler.returnAsset(asset, cacheControl);
+        }
+    }
+
+    /**
+     * Return whether any of the given comma separated ETags are for the
+     * current version of the given file
+     */
+    private boolean matchesETag(AssetCache.Asset asset, String eTags) {
+        for (String eTag: eTags.split(",")) {
+            if (asset.hasETag(eTag.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the link to the given file, including its current version so it
+     * changes whenever the file does
+     */
+    private String linkToAsset(String link, String filePath) {
+        AssetCache.Asset asset = this.assetCache.get(filePath);
+        return asset == null ? link : link + "?v=" + asset.getVersion();
+    }
+
+    private void handleGetPerson(Responder handler, Header header) throws IOException {
 
         try {
             int ID = Integer.parseInt(header.getFilename());
@@ -232,10 +358,10 @@ class GUI {
             }
         } catch (NumberFormatException e) {}
 
-        handler.errorNotFound();
+        this.errorNotFound(handler);
     }
 
-    private void handleGetPersonEdit(Handler handler, Header header, Person person) throws IOException {
+    private void handleGetPersonEdit(Responder handler, Header header, Person person) throws IOException {
         // fields in input tag:
         //  - id is used to link labels to inputs
         //  - name is what it is called when submitted in POST request
@@ -333,8 +459,9 @@ class GUI {
         handler.returnString(generateHTML("Edit " + Util.encodeHtml(person.formatNameFirstLast()), out));
     }
 
-    private void handleGetPersonView(Handler handler, Header header, Person person) throws IOException {
-        String out = "<button onclick=\"window.location.href='" + LINK_TO_PERSON + person.formatID() + "?edit=true';\">Edit</button>";
+    private void handleGetPersonView(Responder handler, Header header, Person person) throws IOException {
+        String out = "<button onclick=\"window.location.href='" + LINK_TO_PERSON + person.formatID() + "?edit=true';\">Edit</button> ";
+        out += "<button onclick=\"window.location.href='/relationship?a=" + person.formatID() + "';\">Relationship to...</button>";
         out += "<h1>" + Util.encodeHtml(person.formatNameFirstLast()) + "</h1>";
         out += "<p><b>Full Name:</b> " + Util.encodeHtml(person.formatNameFull()) + "</p>";
         out += "<p><b>Sex:</b> " + person.formatSex() + "</p>";
@@ -351,9 +478,13 @@ class GUI {
         Person mother = personStore.getMother(person);
         Person father = personStore.getFather(person);
         HashSet<Person> children = personStore.getChildren(person);
-        HashSet<Person> siblings = personStore.getSiblings(person);
-        HashSet<Person> partners = personStore.getPartners(person);
+        Set<Person> fullSiblings = personStore.getFullSiblings(person);
+        Set<Person> halfSiblings = personStore.getHalfSiblings(person);
+        Set<Person> partners = personStore.getPartners(person);
 
+        int familyID = personStore.getFamilyID(person);
+        int familySize = personStore.getFamilySize(person);
+        out += "<p><b>Family:</b> <a href='/families?id=" + familyID + "'>" + familySize + (familySize == 1 ? " person" : " people") + "</a></p>";
         out += "<p><b>Mother:</b> " + linkName(mother) + "</p>";
         out += "<p><b>Father:</b> " + linkName(father) + "</p>";
 
@@ -369,12 +500,15 @@ class GUI {
         }
 
         out += "</div><div class='column'><h2>Siblings</h2>";
-        if (siblings.isEmpty()) {
+        if (fullSiblings.isEmpty() && halfSiblings.isEmpty()) {
             out += "<p>No siblings</p>";
         } else {
-            for (Person sibling: siblings) {
+            for (Person sibling: fullSiblings) {
                 out += "<p>" + linkName(sibling) + "</p>";
             }
+            for (Person sibling: halfSiblings) {
+                out += "<p>" + linkName(sibling) + " (half)</p>";
+            }
         }
 
         out += "</div><div class='column'><h2>Partners</h2>";
@@ -396,6 +530,18 @@ class GUI {
             out += "<p>" + Util.encodeHtml(notes) + "</p>";
         }
 
+        // path to someone else if asked for
+        out += "<h2>Path To</h2>";
+        out += "<form action='" + LINK_TO_PERSON + person.formatID() + "' method='GET'>";
+        out += "<label for='pathTo'>ID of person: </label>";
+        out += "<input type='number' id='pathTo' name='pathTo' min='1'> ";
+        out += "<input type='submit' value='Find path'>";
+        out += "</form>";
+        int pathToID = queryInt(header.getQuery(), "pathTo", 0);
+        if (pathToID > 0) {
+            out += this.pathHTML(person, this.personStore.find(pathToID));
+        }
+
         // family tree
         out += "<div class='row'>";
         out += "<div class='column'><h2>Descendants Tree</h2>" + treeHTMLDown(person) + "</div>";
@@ -405,61 +551,89 @@ class GUI {
         handler.returnString(generateHTML("View " + Util.encodeHtml(person.formatNameFirstLast()), out));
     }
 
-    private String treeHTMLUp(Person person) {
-        return "<div class='tree'><ul><li>" + treeHTMLUpRec(person) + "</li></ul></div>";
-    }
-
-    private String treeHTMLDown(Person person) {
-        return "<div class='tree'><ul><li>" + treeHTMLDownRec(person) + "</li></ul></div>";
-    }
-
     /**
-     * The same as treeHTMLDownRec but instead of going down it goes up.
-     * It still creates a tree going down though so it's the wrong way up.
-     * It creates a sub-list containing their parents and recurse.
-     * So it's a binary tree until we don't know their parents anymore.
+     * Return a list of the people on the shortest path of parents and
+     * children from the given person to the other, saying how each is related
+     * to the one before
      */
-    private String treeHTMLUpRec(Person person) {
-        String out = linkName(person);
-        HashSet<Person> parents = new HashSet<>();
-        Person mother = this.personStore.getMother(person);
-        if (mother != null) {
-            parents.add(mother);
-        }
-        Person father = this.personStore.getFather(person);
-        if (father != null) {
-            parents.add(father);
-        }
-        if (!parents.isEmpty()) {
-            out += "<ul>";
-            for (Person parent: parents) {
-                out += "<li>" + treeHTMLUpRec(parent) + "</li>";
+    private String pathHTML(Person person, Person other) {
+        if (other == null) {
+            return "<p>Person not found</p>";
+        }
+        List<Person> path = this.personStore.kinshipPath(person, other);
+        if (path == null) {
+            return "<p>" + linkName(other) + " is not linked to " + linkName(person) + " by parents and children</p>";
+        }
+
+        String out = "<ol><li>" + linkName(path.get(0)) + "</li>";
+        for (int i = 1; i < path.size(); i++) {
+            Person previous = path.get(i - 1);
+            Person current = path.get(i);
+            String relation;
+            if (current.equals(this.personStore.getMother(previous))) {
+                relation = "mother";
+            } else if (current.equals(this.personStore.getFather(previous))) {
+                relation = "father";
+            } else if (current.getIsMale() == null) {
+                relation = "child";
+            } else {
+                relation = current.getIsMale() ? "son" : "daughter";
             }
-            out += "</ul>";
+            out += "<li>" + linkName(current) + ", " + relation + " of " + linkName(previous) + "</li>";
         }
+        return out + "</ol>";
+    }
 
-        return out;
+    private String treeHTMLUp(Person person) {
+        return treeHTML(person, Walker.Direction.UP);
+    }
+
+    private String treeHTMLDown(Person person) {
+        return treeHTML(person, Walker.Direction.DOWN);
     }
 
     /**
-     * Recursively create tree in HTML unordered lists of children of the current person
+     * Create a tree in HTML unordered lists of the given person and their
+     * children and their children and so on, or their parents and their
+     * parents and so on if going up. Going up still creates a tree going down
+     * though so it's the wrong way up, and it's a binary tree until we don't
+     * know their parents anymore.
      * https://thecodeplayer.com/index.php/walkthrough/css3-family-tree
      */
-    private String treeHTMLDownRec(Person person) {
-        String out = linkName(person);
-        HashSet<Person> children = personStore.getChildren(person);
-        if (!children.isEmpty()) {
-            out += "<ul>";
-            for (Person child: children) {
-                out += "<li>" + treeHTMLDownRec(child) + "</li>";
+    private String treeHTML(Person person, Walker.Direction direction) {
+        StringBuilder out = new StringBuilder("<div class='tree'><ul>");
+
+        // whether the list of relatives at each depth has been started so it
+        // is only added for people with relatives
+        ArrayList<Boolean> listStarted = new ArrayList<>();
+
+        new Walker(this.personStore, direction, Walker.UNLIMITED).walk(person, new Walker.Visitor() {
+            public boolean enter(Person person, int depth) {
+                if (depth > 0 && !listStarted.get(depth - 1)) {
+                    out.append("<ul>");
+                    listStarted.set(depth - 1, true);
+                }
+                out.append("<li>").append(linkName(person));
+                if (listStarted.size() == depth) {
+                    listStarted.add(false);
+                } else {
+                    listStarted.set(depth, false);
+                }
+                return true;
             }
-            out += "</ul>";
-        }
 
-        return out;
+            public void leave(Person person, int depth) {
+                if (listStarted.get(depth)) {
+                    out.append("</ul>");
+                }
+                out.append("</li>");
+            }
+        });
+
+        return out.append("</ul></div>").toString();
     }
 
-    private void handleGetPeople(Handler handler, Header header) throws IOException {
+    private void handleGetPeople(Responder handler, Header header) throws IOException {
 
         // TODO: sorting and choosing data buttons
 
@@ -517,7 +691,7 @@ class GUI {
         //         }
         // }
 
-        TreeSet<Person> people = this.personStore.getEveryoneByID();
+        Collection<Person> people = this.personStore.getEveryoneByID();
         String[][] data = new String[people.size() + 1][];
         String[] IDs = new String[people.size()];
 
@@ -545,7 +719,7 @@ class GUI {
         handler.returnString(generateHTML("People", addButton + tabulate(data)));
     }
 
-    private void handleGetPeopleAdd(Handler handler, Header header) throws IOException {
+    private void handleGetPeopleAdd(Responder handler, Header header) throws IOException {
         // fields in input tag:
         //  - id is used to link labels to inputs
         //  - name is what it is called when submitted in POST request
@@ -642,10 +816,26 @@ class GUI {
         return out;
     }
 
-    private void handleGetBirthdays(Handler handler, Header header) throws IOException {
-        TreeSet<Person> people = this.personStore.getEveryoneByDaysUntilBirthday();
-        String[][] data = new String[people.size() + 1][];
+    /**
+     * Show one page of the people with the next birthdays. The query can
+     * have `limit` people per page, which `page` to show starting from 1 and
+     * whether to show only `living` people.
+     */
+    private void handleGetBirthdays(Responder handler, Header header) throws IOException {
+        HashMap<String, String> query = header.getQuery();
+        int limit = Math.min(MAX_BIRTHDAYS_PER_PAGE, queryInt(query, "limit", DEFAULT_BIRTHDAYS_PER_PAGE));
+        int page = queryInt(query, "page", 1);
+        boolean livingOnly = "true".equals(query.get("living"));
+
+        // get one more than is shown to know whether there is a next page
+        int offset = (int) Math.min(Integer.MAX_VALUE, (long) (page - 1) * limit);
+        List<Person> people = this.personStore.nextBirthdays(offset, limit + 1, livingOnly);
+        boolean hasNextPage = people.size() > limit;
+        if (hasNextPage) {
+            people = people.subList(0, limit);
+        }
 
+        String[][] data = new String[people.size() + 1][];
         data[0] = new String[] {"Days Until Birthday", "Name", "Birthday", "Age on Birthday", "Living?"};
         int count = 1;
         for (Person person: people) {
@@ -659,13 +849,129 @@ class GUI {
             count++;
         }
 
-        String filters = "<input type='checkbox' id='onlyShowLivingInput' onclick='onlyShowLivingFunc(this)'>"
-                       + "<label for='onlyShowLivingInput'>Only show living people?</label><br><br>";
+        String filters = "<form action='/birthdays' method='GET'>"
+                       + "<input type='hidden' name='limit' value='" + limit + "'>"
+                       + "<input type='checkbox' id='onlyShowLivingInput' name='living' value='true' onchange='this.form.submit()'" + (livingOnly ? " checked" : "") + ">"
+                       + "<label for='onlyShowLivingInput'>Only show living people?</label>"
+                       + "</form><br>";
+
+        String pages = "<p>";
+        if (page > 1) {
+            pages += "<a href='" + birthdaysLink(page - 1, limit, livingOnly) + "'>Previous</a> ";
+        }
+        pages += "Page " + page;
+        if (hasNextPage) {
+            pages += " <a href='" + birthdaysLink(page + 1, limit, livingOnly) + "'>Next</a>";
+        }
+        pages += "</p>";
 
-        handler.returnString(generateHTML("Birthdays", filters + tabulate(data)));
+        handler.returnString(generateHTML("Birthdays", filters + tabulate(data) + pages));
     }
 
-    private void handleGetHome(Handler handler, Header header) throws IOException {
+    private static String birthdaysLink(int page, int limit, boolean livingOnly) {
+        return "/birthdays?page=" + page + "&amp;limit=" + limit + (livingOnly ? "&amp;living=true" : "");
+    }
+
+    /**
+     * Return the positive number with the given name in the query or the
+     * default if it isn't there or isn't a positive number
+     */
+    private static int queryInt(HashMap<String, String> query, String name, int defaultValue) {
+        try {
+            int value = Integer.parseInt(query.get(name));
+            return value > 0 ? value : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Show a form to choose two people by ID and if they are given in the
+     * query as `a` and `b`, how `b` is related to `a`
+     */
+    private void handleGetRelationship(Responder handler, Header header) throws IOException {
+        HashMap<String, String> query = header.getQuery();
+        int a = queryInt(query, "a", 0);
+        int b = queryInt(query, "b", 0);
+
+        String out = "<form action='/relationship' method='GET'>";
+        out += "<label for='a'>ID of person: </label>";
+        out += "<input type='number' id='a' name='a' min='1'" + (a > 0 ? " value='" + a + "'" : "") + "><br><br>";
+        out += "<label for='b'>ID of relative: </label>";
+        out += "<input type='number' id='b' name='b' min='1'" + (b > 0 ? " value='" + b + "'" : "") + "><br><br>";
+        out += "<input type='submit' value='Find relationship'>";
+        out += "</form>";
+
+        if (a > 0 && b > 0) {
+            Person person = this.personStore.find(a);
+            Person relative = this.personStore.find(b);
+            if (person == null || relative == null) {
+                out += "<p>Person not found</p>";
+            } else {
+                Relationship relationship = this.personStore.relationship(person, relative);
+                out += "<h2>" + linkName(relative) + " is " + linkName(person) + "'s " + relationship.describe() + "</h2>";
+                if (relationship.isRelated()) {
+                    String ancestors = "";
+                    for (Person ancestor: relationship.getCommonAncestors()) {
+                        ancestors += linkName(ancestor) + ", ";
+                    }
+                    out += "<p><b>Nearest common ancestors:</b> " + ancestors.substring(0, ancestors.length() - 2) + "</p>";
+                    out += "<p><b>Generations from " + linkName(person) + ":</b> " + relationship.getGenerationsFromPerson() + "</p>";
+                    out += "<p><b>Generations from " + linkName(relative) + ":</b> " + relationship.getGenerationsFromRelative() + "</p>";
+                    out += "<p><b>Kinship coefficient:</b> " + this.personStore.kinship(person, relative) + "</p>";
+                }
+            }
+        }
+
+        handler.returnString(generateHTML("Relationship", out));
+    }
+
+    /**
+     * Show every separate family group with how many people are in it and
+     * who has the most descendants, or if the query has the `id` of a
+     * family, everyone in that family
+     */
+    private void handleGetFamilies(Responder handler, Header header) throws IOException {
+        int familyID = queryInt(header.getQuery(), "id", 0);
+        Person member = familyID > 0 ? this.personStore.find(familyID) : null;
+
+        if (member == null) {
+            Map<Integer, Integer> sizes = this.personStore.getFamilySizes();
+            String[][] data = new String[sizes.size() + 1][];
+            data[0] = new String[] {"Family", "People", "Most Descendants"};
+            int count = 1;
+            for (Map.Entry<Integer, Integer> family: sizes.entrySet()) {
+                Person first = this.personStore.find(family.getKey());
+                data[count] = new String[] {
+                    "<a href='/families?id=" + family.getKey() + "'>Family of " + Util.encodeHtml(first.formatNameFirstLast()) + "</a>",
+                    family.getValue().toString(),
+                    linkName(this.personStore.personWithMostDescendants(first))
+                };
+                count++;
+            }
+            handler.returnString(generateHTML("Families", "<p>" + (sizes.size() == 1 ? "1 family" : sizes.size() + " separate families") + "</p>" + tabulate(data)));
+            return;
+        }
+
+        List<Person> family = this.personStore.getFamily(member);
+        String[][] data = new String[family.size() + 1][];
+        data[0] = new String[] {"ID", "Name", "Mother", "Father"};
+        int count = 1;
+        for (Person person: family) {
+            data[count] = new String[] {
+                person.formatID(),
+                linkName(person),
+                linkName(this.personStore.getMother(person)),
+                linkName(this.personStore.getFather(person))
+            };
+            count++;
+        }
+        String out = "<h2>Family of " + linkName(member) + "</h2>";
+        out += "<p>" + family.size() + " people, the one with the most descendants is " + linkName(this.personStore.personWithMostDescendants(member)) + "</p>";
+        handler.returnString(generateHTML("Families", out + tabulate(data)));
+    }
+
+    private void handleGetHome(Responder handler, Header header) throws IOException {
         String rest = "<h1>Family Tree</h1>";
         Person person = personStore.personWithMostDescendants();
         if (person == null) {
@@ -678,23 +984,25 @@ class GUI {
 
     // TODO: change to not include IDs and instead only link the names themselves in the string data passed
     private static String tabulate(String[][] data) {
-        String content = "<div class='table'><table id='table'><tr style='position:sticky;top:50px;'>";
+
+        // built up in a single buffer since the table can be megabytes
+        StringBuilder content = new StringBuilder("<div class='table'><table id='table'><tr style='position:sticky;top:50px;'>");
         for (int j = 0; j < data[0].length; j++) {
-            content += String.format("<th onclick='sortTable(%d)'>%s</th>", j, data[0][j]);
+            content.append(String.format("<th onclick='sortTable(%d)'>%s</th>", j, data[0][j]));
         }
-        content += "</tr>";
+        content.append("</tr>");
         for (int i = 1; i < data.length; i++) {
             String[] fields = data[i];
-            content += "<tr>";
+            content.append("<tr>");
             for (int j = 0; j < fields.length; j++) {
-                content += "<td>" + fields[j] + "</td>";
+                content.append("<td>").append(fields[j]).append("</td>");
             }
-            content += "</tr>";
+            content.append("</tr>");
         }
-        return content + "</table></div>";
+        return content.append("</table></div>").toString();
     }
 
-    private static String generateHTML(String title, String rest) throws IOException {
+    private String generateHTML(String title, String rest) {
         String navs = "";
         for (String page: PAGES) {
             navs += "<a";
@@ -704,19 +1012,13 @@ class GUI {
             navs += " href='/" + page.toLowerCase() + "'>" + page + "</a>";
         }
 
-        // External CSS not being applied so copy it into the head
-        String css = Files.readString(Path.of(PATH_TO_CSS));
-        String js  = Files.readString(Path.of(PATH_TO_JS));
-
         return ""
         + "<!DOCTYPE html>"
         + "<html>"
             + "<head>"
                 + "<title>" + title + " | Family Tree</title>"
-                // + "<link rel='stylesheet' type='text/css' href='" + LINK_TO_CSS + "'>"
-                + "<style>" + css + "</style>"
-                // + "<script src='" + LINK_TO_JS + "'></script>"
-                + "<script>" + js + "</script>"
+                + "<link rel='stylesheet' type='text/css' href='" + this.linkToAsset(LINK_TO_CSS, PATH_TO_CSS) + "'>"
+                + "<script src='" + this.linkToAsset(LINK_TO_JS, PATH_TO_JS) + "'></script>"
             + "</head>"
             + "<body>"
                 + "<div class='topnav'>" + navs + "</div><br>"
@@ -1,106 +1,157 @@
 package web_server_custom;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.PrintWriter;
+import java.io.InputStream;
 import java.net.Socket;
-import java.nio.file.FileSystems;
-import java.nio.file.Files;
-import java.util.Date;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
 
 /**
- * Handles a single request to the web server
+ * Handles the requests made on a single connection to the web server, one
+ * after another while the user keeps it open. Requests the user sends
+ * without waiting for the response to the last are read and answered in
+ * order, with their responses sent together. Responses are compressed if
+ * the user accepts it.
  */
-public class Handler implements Runnable {
+public class Handler implements Runnable, Responder {
+    private static final String CONTENT_TYPE_HTML = "text/html; charset=UTF-8";
+
     private Socket socket;
     private GUI gui;
-    private PrintWriter outputString;
-    private BufferedOutputStream outputFile;
-
-    private static final String CODE_OK = "200 OK";
-    private static final String CODE_NOT_FOUND = "404 Not Found";
-    private static final String CODE_NOT_IMPLEMENTED = "501 Not Implemented";
+    private InputStream input;
+    private BufferedOutputStream output;
+    private boolean keepAlive;
+    private String encoding;
 
     /**
      * Construct a new handler to handle
-     * a specific request from given socket
-     * and use the given gui to get the response
+     * the requests from given socket
+     * and use the given gui to get the responses
      * @param socket
      * @param gui
      */
     public Handler(Socket socket, GUI gui) throws IOException {
         this.socket = socket;
-        OutputStream outputStream = this.socket.getOutputStream();
-        this.outputString = new PrintWriter(outputStream);
-        this.outputFile = new BufferedOutputStream(outputStream);
+        this.input = new BufferedInputStream(this.socket.getInputStream());
+        this.output = new BufferedOutputStream(this.socket.getOutputStream());
         this.gui = gui;
+        this.keepAlive = false;
+        this.encoding = null;
     }
 
-    private void returnHeader(String responseCode) {
+    private void writeHeader(String responseCode, String contentType, String fields, int contentLength) throws IOException {
+        this.output.write(Responder.header(responseCode, contentType, fields, contentLength, this.keepAlive).getBytes(StandardCharsets.UTF_8));
+    }
 
-        // TODO: Add relevant fields
-        this.outputString.println("HTTP/1.1 " + responseCode);
-        this.outputString.println("Date: " + new Date());
-        this.outputString.println("Content-type: text/html; charset=UTF-8");
-        // this.outputString.println("Content-length: " + "?");
-        this.outputString.println();
-        this.outputString.flush();
+    private void respond(String responseCode, byte[] content) throws IOException {
+        this.writeHeader(responseCode, CONTENT_TYPE_HTML, "", content.length);
+        this.output.write(content);
     }
 
-    public void errorNotFound() throws IOException {
-        this.returnHeader(CODE_NOT_FOUND);
-        this.writeFile("web/NotFound.html");
+    private void respondAsset(String responseCode, AssetCache.Asset asset, String cacheControl, boolean withContent) throws IOException {
+        byte[] content = asset.getContent(this.encoding);
+        String fields = "Vary: Accept-Encoding\r\n";
+
+        // errors such as not found have no cache control and aren't cached
+        if (cacheControl != null) {
+            fields = "ETag: " + asset.getETag(content == null ? null : this.encoding) + "\r\n"
+                   + "Cache-Control: " + cacheControl + "\r\n"
+                   + fields;
+        }
+        if (content == null) {
+            content = asset.getContent();
+        } else {
+            fields += "Content-Encoding: " + this.encoding + "\r\n";
+        }
+        this.writeHeader(responseCode, asset.getContentType(), fields, withContent ? content.length : -1);
+        if (withContent) {
+            this.output.write(content);
+        }
     }
 
-    public void errorNotImplemented() {
-        this.returnHeader(CODE_NOT_IMPLEMENTED);
+    public void errorNotFound(AssetCache.Asset page) throws IOException {
+        if (page == null) {
+            this.respond(CODE_NOT_FOUND, new byte[0]);
+            return;
+        }
+        this.respondAsset(CODE_NOT_FOUND, page, null, true);
+    }
+
+    public void errorNotImplemented() throws IOException {
+        this.respond(CODE_NOT_IMPLEMENTED, new byte[0]);
     }
 
-    /**
-     * Return the given string to the user
-     * @param response    If newlines are included, they must be
-     * system dependent using System.lineSeparator()
-     * @throws IOException
-     */
     public void returnString(String response) throws IOException {
-        this.returnHeader(CODE_OK);
-        this.outputString.println(response);
-        this.outputString.flush();
+        Compression compression = this.gui.getCompression();
+        byte[] content = (response + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        if (this.encoding == null || !compression.shouldCompress(content.length, CONTENT_TYPE_HTML)) {
+            this.respond(CODE_OK, content);
+            return;
+        }
+        content = compression.compress(content, this.encoding);
+        this.writeHeader(CODE_OK, CONTENT_TYPE_HTML, "Vary: Accept-Encoding\r\nContent-Encoding: " + this.encoding + "\r\n", content.length);
+        this.output.write(content);
     }
 
-    /**
-     * Return the file specified to the user
-     * @param filePath
-     * @throws IOException
-     */
-    public void returnFile(String filePath) throws IOException {
-        this.returnHeader(CODE_OK);
-        this.writeFile(filePath);
+    public void returnAsset(AssetCache.Asset asset, String cacheControl) throws IOException {
+        this.respondAsset(CODE_OK, asset, cacheControl, true);
     }
 
-    private void writeFile(String filePath) throws IOException {
-        this.outputFile.write(Files.readAllBytes(FileSystems.getDefault().getPath(filePath)));
-        this.outputFile.flush();
+    public void returnNotModified(AssetCache.Asset asset, String cacheControl) throws IOException {
+        this.respondAsset(CODE_NOT_MODIFIED, asset, cacheControl, false);
     }
 
     /**
-     * Handle the request using the gui to get the response
+     * Handle each request using the gui to get the response until the user
+     * closes the connection, asks for it to be closed or doesn't make
+     * another request within the idle timeout
      */
     public void run() {
 
         try {
-            // read and parse header
-            Header header = new Header(this.socket, false);
-
-            // handle request - this method in the gui must call either
-            // returnFile or returnString above exactly once
-            this.gui.handleRequest(this, header);
-
-            this.socket.close();
+            this.socket.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+            do {
+
+                // read and parse header
+                Header header;
+                try {
+                    header = new Header(this.input, false);
+                } catch (EOFException | SocketTimeoutException e) {
+                    break;
+                } catch (IllegalArgumentException e) {
+
+                    // can't tell where the next request would start so
+                    // answer this one and close the connection
+                    this.output.write(Responder.header(CODE_BAD_REQUEST, 0, false).getBytes(StandardCharsets.UTF_8));
+                    break;
+                }
+                this.keepAlive = header.isKeepAlive();
+                this.encoding = Compression.chooseEncoding(header);
+
+                // handle request - this method in the gui must call one of
+                // the methods above exactly once
+                this.gui.handleRequest(this, header);
+
+                // only send once there are no more pipelined requests
+                // waiting so their responses go together
+                if (this.input.available() == 0) {
+                    this.output.flush();
+                }
+            } while (this.keepAlive);
+
+            this.output.flush();
 
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -1,10 +1,12 @@
 package web_server_custom;
 
 import core.Util;
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 
@@ -42,6 +44,9 @@ public class Header {
     private HashMap<String, String> data;
     private boolean makeWork;
 
+    // The most a header can be, to stop a connection using up memory
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+
     /**
      * 
      * @param socket
@@ -51,37 +56,148 @@ public class Header {
      * @throws IOException
      */
     public Header(Socket socket, boolean makeWork) throws IOException {
+        this(socket.getInputStream(), makeWork);
+    }
+
+    /**
+     * Read a single request from the given stream, leaving anything after it
+     * such as the next request on a persistent connection unread
+     * @param in
+     * @param makeWork As for reading from a socket
+     * @throws EOFException If the stream ends before a request starts
+     * @throws IOException
+     */
+    public Header(InputStream in, boolean makeWork) throws IOException {
         this.makeWork = makeWork;
 
-        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        // read all header lines into the array list and parse
         ArrayList<String> headerLines = new ArrayList<>();
+        int headerSize = 0;
         String line;
-
-        // read all header lines into the array list and parse
-        while ((line = in.readLine()) != null && !line.isEmpty()) {
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            headerSize += line.length();
+            if (headerSize > MAX_HEADER_SIZE) {
+                throw new IOException("Header too long");
+            }
             headerLines.add(line);
         }
+        if (line == null && headerLines.isEmpty()) {
+            throw new EOFException("No request before the end of the stream");
+        }
         this.parse(headerLines);
 
-        this.dataStr = ""; // default
-
         // Now we need to read the post data if there is any
         // We can't read until EOF because EOF is only given if the socket is
         // closed and web browsers don't do this
-        // So instead we use content-length to read that many characters
-        if (this.fields.containsKey("Content-Length")) {
-            int contentLength = Integer.valueOf(this.fields.get("Content-Length"));
-            for (int dummy = 0; dummy < contentLength; dummy++) {
-                char chr = (char) in.read();
-                this.dataStr += chr;
+        // So instead we use content-length to read that many bytes
+        byte[] data = in.readNBytes(this.getContentLength());
+        this.setData(new String(data, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Read a line from the given stream without reading any further, without
+     * the line ending. Return null if the stream has ended before the line
+     * started.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (line.size() > MAX_HEADER_SIZE) {
+                throw new IOException("Header too long");
+            }
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        String text = line.toString(StandardCharsets.UTF_8);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    /**
+     * Parse a header that has already been read, up to the blank line that
+     * ends it. Any data after it must be given with `setData` once it has
+     * all arrived, which is `getContentLength` bytes.
+     * @param text
+     * @param makeWork As for reading from a socket
+     */
+    public Header(String text, boolean makeWork) {
+        this.makeWork = makeWork;
+
+        ArrayList<String> headerLines = new ArrayList<>();
+        for (String line: text.split("\r?\n")) {
+            if (line.isEmpty()) {
+                break;
+            }
+            headerLines.add(line);
+        }
+        this.parse(headerLines);
+        this.setData("");
+    }
+
+    /**
+     * Return the length of the data after the header, 0 if there is none
+     */
+    public int getContentLength() {
+        String contentLength = this.getField("Content-Length");
+        if (contentLength == null) {
+            return 0;
+        }
+        int length;
+        try {
+            length = Integer.parseInt(contentLength);
+        } catch (NumberFormatException e) {
+            if (this.makeWork) {
+                return 0;
             }
+            throw new IllegalArgumentException("Invalid header, Content-Length must be a number");
         }
+        if (length < 0) {
+            if (this.makeWork) {
+                return 0;
+            }
+            throw new IllegalArgumentException("Invalid header, Content-Length must not be negative");
+        }
+        return length;
+    }
+
+    /**
+     * Return the value of the field with the given name, whatever case the
+     * user gave it in, or null if they didn't give it
+     */
+    public String getField(String name) {
+        for (String key: this.fields.keySet()) {
+            if (key.equalsIgnoreCase(name)) {
+                return this.fields.get(key).trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return whether the connection should be kept open for more requests
+     * after this one, which is the default from HTTP/1.1 unless the user
+     * asks for it to be closed
+     */
+    public boolean isKeepAlive() {
+        String connection = this.getField("Connection");
+        if (this.version.equals("1.1")) {
+            return connection == null || !connection.equalsIgnoreCase("close");
+        }
+        return connection != null && connection.equalsIgnoreCase("keep-alive");
+    }
+
+    /**
+     * Set the data after the header
+     */
+    public void setData(String dataStr) {
+        this.dataStr = dataStr;
 
         // parse into dictionary and decode if content type is as expected
-        boolean shouldDecode = this.fields.containsKey("Content-Type") && this.fields.get("Content-Type").equals("application/x-www-form-urlencoded");
+        String contentType = this.getField("Content-Type");
+        boolean shouldDecode = contentType != null && contentType.equals("application/x-www-form-urlencoded");
         this.data = this.parseUrlList(this.dataStr, shouldDecode);
-
-        // don't close buffered reader as will close the socket
     }
 
     private void parse(ArrayList<String> lines) {
@@ -137,6 +253,13 @@ public class Header {
         if (lines.size() > 1) {
             this.fieldsStr = this.fieldsStr.substring(System.lineSeparator().length());
         }
+
+        // data sent in chunks isn't read, and even when making it work it
+        // mustn't be taken as empty or the chunks would be read as the next
+        // request on the connection
+        if (this.getField("Transfer-Encoding") != null) {
+            throw new IllegalArgumentException("Invalid header, data sent with a Transfer-Encoding isn't supported");
+        }
     }
 
     private void parseHalfURL(String halfURL) {
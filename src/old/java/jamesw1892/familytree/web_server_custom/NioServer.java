@@ -0,0 +1,449 @@
+package web_server_custom;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the web server with a single thread waiting on every connection at
+ * once with a selector, rather than a thread per connection, so idle
+ * connections only cost their buffers. Requests are read without blocking
+ * and once one has fully arrived it is passed to the gui on one of a fixed
+ * number of worker threads, whose response is then written back by the
+ * selector thread without blocking.
+ *
+ * Connections are kept open for more requests unless the user asks for them
+ * to be closed. Requests the user sends without waiting for the response to
+ * the last are kept until it has been written so they are answered in order.
+ * Connections that don't send anything for the idle timeout are closed.
+ *
+ * If every worker is busy and the queue of requests waiting for one is full,
+ * new requests are turned away with 503 Service Unavailable rather than
+ * queueing without limit.
+ */
+class NioServer implements Runnable {
+
+    // Requests bigger than this, header and data together, are dropped
+    private static final int MAX_REQUEST_SIZE = 1 << 20;
+
+    // How many requests can wait for each worker before more are turned away
+    private static final int QUEUED_PER_WORKER = 64;
+
+    // How often to look for connections that have been idle too long
+    private static final long SWEEP_MILLIS = 1000;
+
+    private final ServerSocketChannel serverChannel;
+    private final GUI gui;
+    private final ThreadPoolExecutor workers;
+    private final Selector selector;
+    private final ByteBuffer readBuffer;
+
+    // connections whose response is ready, from the workers to the selector
+    private final ConcurrentLinkedQueue<Connection> responded;
+
+    /**
+     * The state of a single connection, attached to its selection key
+     */
+    private static class Connection {
+        private final SocketChannel channel;
+        private byte[] request;
+        private int size;
+        private Header header;
+        private int requestSize;
+        private boolean keepAlive;
+        private ByteBuffer response;
+        private long lastActive;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.request = new byte[1024];
+            this.lastActive = System.currentTimeMillis();
+        }
+
+        /**
+         * Forget the request that has just arrived, keeping anything after it
+         */
+        void consume() {
+            this.size -= this.requestSize;
+            System.arraycopy(this.request, this.requestSize, this.request, 0, this.size);
+            this.header = null;
+            this.requestSize = 0;
+        }
+
+        void append(ByteBuffer buffer) {
+            if (this.size + buffer.remaining() > this.request.length) {
+                this.request = Arrays.copyOf(this.request, Math.max(this.size + buffer.remaining(), this.request.length * 2));
+            }
+            int length = buffer.remaining();
+            buffer.get(this.request, this.size, length);
+            this.size += length;
+        }
+
+        /**
+         * Return where the blank line ending the header finishes, or -1 if it
+         * hasn't arrived yet
+         */
+        int headerEnd() {
+            for (int i = 0; i < this.size; i++) {
+                if (this.request[i] == '\n') {
+                    if (i + 1 < this.size && this.request[i + 1] == '\n') {
+                        return i + 2;
+                    }
+                    if (i + 2 < this.size && this.request[i + 1] == '\r' && this.request[i + 2] == '\n') {
+                        return i + 3;
+                    }
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Sends the response to a single request by building it in memory to be
+     * written back by the selector thread, compressed if the user accepts it
+     */
+    private static class NioResponder implements Responder {
+        private static final String CONTENT_TYPE_HTML = "text/html; charset=UTF-8";
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final boolean keepAlive;
+        private final String encoding;
+        private final Compression compression;
+
+        NioResponder(boolean keepAlive, String encoding, Compression compression) {
+            this.keepAlive = keepAlive;
+            this.encoding = encoding;
+            this.compression = compression;
+        }
+
+        private void writeHeader(String responseCode, String contentType, String fields, int contentLength) {
+            this.out.writeBytes(Responder.header(responseCode, contentType, fields, contentLength, this.keepAlive).getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void respond(String responseCode, byte[] content) {
+            this.writeHeader(responseCode, CONTENT_TYPE_HTML, "", content.length);
+            this.out.writeBytes(content);
+        }
+
+        private void respondAsset(String responseCode, AssetCache.Asset asset, String cacheControl, boolean withContent) {
+            byte[] content = asset.getContent(this.encoding);
+            String fields = "Vary: Accept-Encoding\r\n";
+
+            // errors such as not found have no cache control and aren't cached
+            if (cacheControl != null) {
+                fields = "ETag: " + asset.getETag(content == null ? null : this.encoding) + "\r\n"
+                       + "Cache-Control: " + cacheControl + "\r\n"
+                       + fields;
+            }
+            if (content == null) {
+                content = asset.getContent();
+            } else {
+                fields += "Content-Encoding: " + this.encoding + "\r\n";
+            }
+            this.writeHeader(responseCode, asset.getContentType(), fields, withContent ? content.length : -1);
+            if (withContent) {
+                this.out.writeBytes(content);
+            }
+        }
+
+        public void errorNotFound(AssetCache.Asset page) {
+            if (page == null) {
+                this.respond(CODE_NOT_FOUND, new byte[0]);
+                return;
+            }
+            this.respondAsset(CODE_NOT_FOUND, page, null, true);
+        }
+
+        public void errorNotImplemented() {
+            this.respond(CODE_NOT_IMPLEMENTED, new byte[0]);
+        }
+
+        public void returnString(String response) {
+            byte[] content = (response + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+            if (this.encoding == null || !this.compression.shouldCompress(content.length, CONTENT_TYPE_HTML)) {
+                this.respond(CODE_OK, content);
+                return;
+            }
+            content = this.compression.compress(content, this.encoding);
+            this.writeHeader(CODE_OK, CONTENT_TYPE_HTML, "Vary: Accept-Encoding\r\nContent-Encoding: " + this.encoding + "\r\n", content.length);
+            this.out.writeBytes(content);
+        }
+
+        public void returnAsset(AssetCache.Asset asset, String cacheControl) {
+            this.respondAsset(CODE_OK, asset, cacheControl, true);
+        }
+
+        public void returnNotModified(AssetCache.Asset asset, String cacheControl) {
+            this.respondAsset(CODE_NOT_MODIFIED, asset, cacheControl, false);
+        }
+    }
+
+    /**
+     * Construct a new server to accept connections from the given channel,
+     * which must already be bound, and pass requests to the given gui on the
+     * given number of worker threads
+     * @param serverChannel
+     * @param gui
+     * @param numWorkers
+     * @throws IOException
+     */
+    NioServer(ServerSocketChannel serverChannel, GUI gui, int numWorkers) throws IOException {
+        if (numWorkers < 1) {
+            throw new IllegalArgumentException("There must be at least 1 worker");
+        }
+        this.serverChannel = serverChannel;
+        this.gui = gui;
+        this.workers = new ThreadPoolExecutor(numWorkers, numWorkers, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(numWorkers * QUEUED_PER_WORKER));
+        this.selector = Selector.open();
+        this.readBuffer = ByteBuffer.allocateDirect(16 * 1024);
+        this.responded = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Accept and handle connections until interrupted, then close them all
+     */
+    public void run() {
+        Thread thisThread = Thread.currentThread();
+
+        try {
+            this.serverChannel.configureBlocking(false);
+            this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+
+            long lastSweep = System.currentTimeMillis();
+            while (!thisThread.isInterrupted()) {
+
+                // an interrupt also wakes the selector up
+                this.selector.select(SWEEP_MILLIS);
+
+                long now = System.currentTimeMillis();
+                if (now - lastSweep >= SWEEP_MILLIS) {
+                    this.closeIdle(now);
+                    lastSweep = now;
+                }
+
+                // start writing the responses the workers have finished
+                Connection connection;
+                while ((connection = this.responded.poll()) != null) {
+                    SelectionKey key = connection.channel.keyFor(this.selector);
+                    if (key != null && key.isValid()) {
+                        key.interestOps(SelectionKey.OP_WRITE);
+                    }
+                }
+
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            this.accept();
+                        } else if (key.isReadable()) {
+                            this.read(key);
+                        } else if (key.isWritable()) {
+                            this.write(key);
+                        }
+                    } catch (IOException | RuntimeException e) {
+
+                        // only this connection is lost, never the server
+                        this.close(key);
+                    }
+                }
+            }
+
+        } catch (IOException | ClosedSelectorException e) {
+            e.printStackTrace();
+        }
+
+        this.workers.shutdown();
+        for (SelectionKey key: this.selector.keys()) {
+            this.close(key);
+        }
+        try {
+            this.selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Accept every connection waiting. Failing to accept one, such as from
+     * running out of file descriptors, mustn't close the server.
+     */
+    private void accept() {
+        SocketChannel channel;
+        try {
+            while ((channel = this.serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.register(this.selector, SelectionKey.OP_READ, new Connection(channel));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Close every connection that has been waiting for a request for longer
+     * than the idle timeout
+     */
+    private void closeIdle(long now) {
+        for (SelectionKey key: this.selector.keys()) {
+            if (key.isValid() && key.attachment() != null && key.interestOps() == SelectionKey.OP_READ
+                && now - ((Connection) key.attachment()).lastActive > Responder.IDLE_TIMEOUT_MILLIS) {
+                this.close(key);
+            }
+        }
+    }
+
+    /**
+     * Read what has arrived on the given connection and once the whole
+     * request has, pass it to a worker
+     */
+    private void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        this.readBuffer.clear();
+        int read = connection.channel.read(this.readBuffer);
+        if (read == -1) {
+            this.close(key);
+            return;
+        }
+        this.readBuffer.flip();
+        connection.append(this.readBuffer);
+        connection.lastActive = System.currentTimeMillis();
+        this.process(key);
+    }
+
+    /**
+     * Pass the next request that has arrived on the given connection to a
+     * worker if all of it has arrived
+     */
+    private void process(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+
+        // parse the header once it has all arrived to know how much data
+        // comes after it
+        if (connection.header == null) {
+            int headerEnd = connection.headerEnd();
+            if (headerEnd == -1) {
+                if (connection.size > MAX_REQUEST_SIZE) {
+                    this.close(key);
+                }
+                return;
+            }
+            try {
+                connection.header = new Header(new String(connection.request, 0, headerEnd, StandardCharsets.UTF_8), false);
+                connection.requestSize = headerEnd + connection.header.getContentLength();
+            } catch (IllegalArgumentException e) {
+                this.reject(key, Responder.CODE_BAD_REQUEST);
+                return;
+            }
+            if (connection.requestSize > MAX_REQUEST_SIZE) {
+                this.close(key);
+                return;
+            }
+        }
+        if (connection.size < connection.requestSize) {
+            return;
+        }
+
+        // the data is only checked once it has all arrived
+        Header header = connection.header;
+        int contentLength = header.getContentLength();
+        try {
+            header.setData(new String(connection.request, connection.requestSize - contentLength, contentLength, StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            this.reject(key, Responder.CODE_BAD_REQUEST);
+            return;
+        }
+
+        // stop reading while a worker handles it
+        connection.keepAlive = header.isKeepAlive();
+        connection.consume();
+        key.interestOps(0);
+        try {
+            this.workers.execute(() -> this.handle(connection, header));
+        } catch (RejectedExecutionException e) {
+            this.reject(key, Responder.CODE_SERVICE_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Answer the given connection with the given code and no content, then
+     * close it once that has been written
+     */
+    private void reject(SelectionKey key, String responseCode) {
+        Connection connection = (Connection) key.attachment();
+        connection.keepAlive = false;
+        connection.response = ByteBuffer.wrap(Responder.header(responseCode, 0, false).getBytes(StandardCharsets.UTF_8));
+        key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Use the gui to get the response to the given connection's request, on
+     * a worker thread, then hand it back to the selector thread to write
+     */
+    private void handle(Connection connection, Header header) {
+        NioResponder responder = new NioResponder(connection.keepAlive, Compression.chooseEncoding(header), this.gui.getCompression());
+        try {
+
+            // this method in the gui must call one of the responder's
+            // methods exactly once
+            this.gui.handleRequest(responder, header);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        // close the connection if there is no response to say so
+        if (responder.out.size() == 0) {
+            connection.keepAlive = false;
+        }
+        connection.response = ByteBuffer.wrap(responder.out.toByteArray());
+        this.responded.add(connection);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Write as much of the response as the connection will take and once it
+     * has all been written, go on to the next request or close it
+     */
+    private void write(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        connection.channel.write(connection.response);
+        if (connection.response.hasRemaining()) {
+            return;
+        }
+        connection.response = null;
+        if (!connection.keepAlive) {
+            this.close(key);
+            return;
+        }
+        connection.lastActive = System.currentTimeMillis();
+        key.interestOps(SelectionKey.OP_READ);
+        this.process(key);
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package web_server_custom;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Sends the response to a single request, whichever way the server is
+ * connected to the user. The gui must call exactly one of these once per
+ * request. Each response says how long it is so the connection can be kept
+ * open for more requests.
+ */
+public interface Responder {
+    String CODE_OK = "200 OK";
+    String CODE_NOT_MODIFIED = "304 Not Modified";
+    String CODE_BAD_REQUEST = "400 Bad Request";
+    String CODE_NOT_FOUND = "404 Not Found";
+    String CODE_NOT_IMPLEMENTED = "501 Not Implemented";
+    String CODE_SERVICE_UNAVAILABLE = "503 Service Unavailable";
+
+    // How long a persistent connection can wait for its next request before
+    // it is closed
+    int IDLE_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Tell the user there is nothing at the path they asked for
+     * @param page The page from the asset cache to show them, or null to
+     * show nothing
+     * @throws IOException
+     */
+    void errorNotFound(AssetCache.Asset page) throws IOException;
+
+    void errorNotImplemented() throws IOException;
+
+    /**
+     * Return the given string to the user
+     * @param response    If newlines are included, they must be
+     * system dependent using System.lineSeparator()
+     * @throws IOException
+     */
+    void returnString(String response) throws IOException;
+
+    /**
+     * Return the given file from the asset cache to the user with its type
+     * and ETag
+     * @param asset
+     * @param cacheControl How the user can cache it
+     * @throws IOException
+     */
+    void returnAsset(AssetCache.Asset asset, String cacheControl) throws IOException;
+
+    /**
+     * Tell the user that their copy of the given file, whose ETag they gave,
+     * is still current
+     * @param asset
+     * @param cacheControl How the user can cache it
+     * @throws IOException
+     */
+    void returnNotModified(AssetCache.Asset asset, String cacheControl) throws IOException;
+
+    /**
+     * Return the status line and fields that start a response with the given
+     * code and length of content, ending with the blank line before the
+     * content
+     * @param responseCode
+     * @param contentLength The number of bytes after the header
+     * @param keepAlive Whether the connection is kept open for the next
+     * request rather than closed after this response
+     */
+    static String header(String responseCode, int contentLength, boolean keepAlive) {
+        return header(responseCode, "text/html; charset=UTF-8", "", contentLength, keepAlive);
+    }
+
+    /**
+     * Return the status line and fields that start a response as above but
+     * with the given type of content and other fields
+     * @param responseCode
+     * @param contentType
+     * @param fields Other fields, each ending in \r\n
+     * @param contentLength The number of bytes after the header or -1 to not
+     * say, when there can't be any such as for 304 Not Modified
+     * @param keepAlive
+     */
+    static String header(String responseCode, String contentType, String fields, int contentLength, boolean keepAlive) {
+        return "HTTP/1.1 " + responseCode + "\r\n"
+             + "Date: " + new Date() + "\r\n"
+             + "Content-type: " + contentType + "\r\n"
+             + fields
+             + (contentLength == -1 ? "" : "Content-Length: " + contentLength + "\r\n")
+             + (keepAlive
+                ? "Connection: keep-alive\r\nKeep-Alive: timeout=" + (IDLE_TIMEOUT_MILLIS / 1000) + "\r\n"
+                : "Connection: close\r\n")
+             + "\r\n";
+    }
+}
@@ -2,43 +2,132 @@ package web_server_custom;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.Scanner;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.zip.DataFormatException;
 
+import core.PersonStore;
+
 /**
  * Runs the web server
  */
 class WebServer implements Runnable {
     private static final int DEFAULT_PORT = 8080;
+    private static final long DEFAULT_WRITE_BEHIND_MILLIS = 50;
+    private static final int DEFAULT_NIO_WORKERS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    private static final int DEFAULT_VIRTUAL_MAX_REQUESTS = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+
+    // Executors.newVirtualThreadPerTaskExecutor, added in Java 21, found when
+    // running so the server still compiles and runs on older versions. Null
+    // if it doesn't exist.
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findNewVirtualThreadExecutor();
+
     private int port;
     private GUI gui;
+    private int nioWorkers;
+    private boolean virtualThreads;
 
     /**
      * Construct a new web server object that can be run with the given port
      * @param port
-     * @throws IOException
-     * @throws DataFormatException
+     * @param personStore The people to serve
+     * @throws IOException If the web files can't be read
+     */
+    public WebServer(int port, PersonStore personStore) throws IOException {
+        this(port, personStore, new Compression(Compression.DEFAULT_THRESHOLD, Compression.DEFAULT_LEVEL));
+    }
+
+    /**
+     * Construct a new web server object that can be run with the given port
+     * @param port
+     * @param personStore The people to serve
+     * @param compression When and how much to compress responses
+     * @throws IOException If the web files can't be read
      */
-    public WebServer(int port) throws IOException, DataFormatException {
-        this.gui = new GUI();
+    WebServer(int port, PersonStore personStore, Compression compression) throws IOException {
+        this.gui = new GUI(personStore, compression);
         this.port = port;
+        this.nioWorkers = 0;
+        this.virtualThreads = false;
     }
 
     /**
-     * Run the web server, creating a thread for each request made
-     * and pass them to the gui to handle it
+     * Return whether this version of Java has virtual threads
+     */
+    public static boolean hasVirtualThreads() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    private static Method findNewVirtualThreadExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Handle each request on a new virtual thread rather than a platform
+     * thread so requests waiting on the network or disk don't each hold an
+     * OS thread. Must be called before running. On Java 21 to 23 a virtual
+     * thread inside a synchronized method, as all PersonStore methods are,
+     * pins its OS thread while it waits for the lock or the disk, so requests
+     * that change people gain little. This mode hasn't been benchmarked.
+     * @throws UnsupportedOperationException If this version of Java doesn't
+     * have virtual threads
+     */
+    public void useVirtualThreads() {
+        if (!hasVirtualThreads()) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later, running " + System.getProperty("java.version"));
+        }
+        this.virtualThreads = true;
+    }
+
+    /**
+     * Handle at most the given number of requests at once, with any more
+     * waiting until one finishes. Must be called before running.
+     * @param maxRequests
+     */
+    public void limitConcurrentRequests(int maxRequests) {
+        this.gui.limitConcurrentRequests(maxRequests);
+    }
+
+    /**
+     * Wait on every connection with a single thread and handle requests on
+     * the given number of worker threads rather than a thread per connection.
+     * Must be called before running.
+     * @param numWorkers
+     */
+    public void useNio(int numWorkers) {
+        if (numWorkers < 1) {
+            throw new IllegalArgumentException("There must be at least 1 worker");
+        }
+        this.nioWorkers = numWorkers;
+    }
+
+    /**
+     * Run the web server, creating a thread (virtual if chosen) for each
+     * request made and pass them to the gui to handle it
      */
     public void run() {
+        if (this.nioWorkers > 0) {
+            this.runNio();
+            return;
+        }
 
         try {
             ServerSocket serverSocket = new ServerSocket(this.port);
             this.port = serverSocket.getLocalPort();
             System.out.println("Server started at http://localhost:" + this.port + " press enter to stop" + System.lineSeparator());
-            ExecutorService pool = Executors.newCachedThreadPool();
+            ExecutorService pool = this.virtualThreads
+                ? (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null)
+                : Executors.newCachedThreadPool();
             Thread thisThread = Thread.currentThread();
 
             // until interrupted, accept requests in a new thread
@@ -56,6 +145,27 @@ class WebServer implements Runnable {
         System.out.println("Server stopped");
     }
 
+    /**
+     * Run the web server with a single thread waiting on every connection
+     * and the chosen number of worker threads handling requests
+     */
+    private void runNio() {
+
+        try {
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(this.port));
+            this.port = serverChannel.socket().getLocalPort();
+            System.out.println("Server started at http://localhost:" + this.port + " press enter to stop" + System.lineSeparator());
+            new NioServer(serverChannel, this.gui, this.nioWorkers).run();
+            serverChannel.close();
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        System.out.println("Server stopped");
+    }
+
     /**
      * Close the gui web server which closes the gui which
      * writes the data edited in PersonStore
@@ -67,7 +177,31 @@ class WebServer implements Runnable {
 
     /**
      * Run the web server until the enter key is pressed.
-     * Take an optional command line argument of the port
+     * Take an optional command line argument of the port and the options:
+     * --journal                  Save each change by appending to a journal
+     *                            rather than writing everyone to the file
+     * --write-behind[=MILLIS]    Save all changes made within MILLIS (default
+     *                            50) of each other with a single write
+     * --ancestor-index           Keep everyone's ancestors in memory so they
+     *                            don't need finding by walking up the tree
+     * --nio[=WORKERS]            Wait on every connection with one thread and
+     *                            handle requests on WORKERS threads (default
+     *                            twice the number of cores, at least 4)
+     * --virtual-threads          Handle each request on a virtual thread, with
+     *                            at most four times the number of cores (at
+     *                            least 16) handled at once unless
+     *                            --max-requests is given. Needs Java 21, on
+     *                            older versions platform threads are used.
+     *                            On Java 21 to 23 the synchronized methods of
+     *                            PersonStore pin virtual threads. Not yet
+     *                            benchmarked
+     * --max-requests=N           Handle at most N requests at once
+     * --compression-threshold=BYTES
+     *                            Only compress responses of at least BYTES
+     *                            (default 1024)
+     * --compression-level=LEVEL  Compress from 1 (fastest) to 9 (smallest),
+     *                            default 6
+     * --no-compression           Never compress responses
      * @param args
      * @throws IOException
      * @throws DataFormatException
@@ -77,14 +211,62 @@ class WebServer implements Runnable {
         // use default port unless one has been provided
         // as a command line argument
         int port = DEFAULT_PORT;
-        if (args.length >= 1) {
-            try {
-                port = Integer.valueOf(args[0]);
-            } catch (NumberFormatException e) {}
+        int nioWorkers = 0;
+        boolean virtualThreads = false;
+        int maxRequests = 0;
+        int compressionThreshold = Compression.DEFAULT_THRESHOLD;
+        int compressionLevel = Compression.DEFAULT_LEVEL;
+        boolean compress = true;
+        PersonStore personStore = new PersonStore();
+        for (String arg: args) {
+            if (arg.equals("--journal")) {
+                personStore.useJournal();
+            } else if (arg.equals("--write-behind")) {
+                personStore.useWriteBehind(DEFAULT_WRITE_BEHIND_MILLIS);
+            } else if (arg.startsWith("--write-behind=")) {
+                personStore.useWriteBehind(Long.parseLong(arg.substring("--write-behind=".length())));
+            } else if (arg.equals("--ancestor-index")) {
+                personStore.useAncestorIndex();
+            } else if (arg.equals("--nio")) {
+                nioWorkers = DEFAULT_NIO_WORKERS;
+            } else if (arg.startsWith("--nio=")) {
+                nioWorkers = Integer.parseInt(arg.substring("--nio=".length()));
+            } else if (arg.equals("--virtual-threads")) {
+                virtualThreads = true;
+            } else if (arg.startsWith("--max-requests=")) {
+                maxRequests = Integer.parseInt(arg.substring("--max-requests=".length()));
+            } else if (arg.startsWith("--compression-threshold=")) {
+                compressionThreshold = Integer.parseInt(arg.substring("--compression-threshold=".length()));
+            } else if (arg.startsWith("--compression-level=")) {
+                compressionLevel = Integer.parseInt(arg.substring("--compression-level=".length()));
+            } else if (arg.equals("--no-compression")) {
+                compress = false;
+            } else {
+                try {
+                    port = Integer.valueOf(arg);
+                } catch (NumberFormatException e) {}
+            }
         }
 
         Scanner sc = new Scanner(System.in);
-        WebServer webServer = new WebServer(port);
+        Compression compression = compress ? new Compression(compressionThreshold, compressionLevel) : Compression.none();
+        WebServer webServer = new WebServer(port, personStore, compression);
+        if (nioWorkers > 0) {
+            webServer.useNio(nioWorkers);
+        }
+        if (virtualThreads) {
+            if (hasVirtualThreads()) {
+                webServer.useVirtualThreads();
+                if (maxRequests == 0) {
+                    maxRequests = DEFAULT_VIRTUAL_MAX_REQUESTS;
+                }
+            } else {
+                System.out.println("Virtual threads need Java 21 or later, running " + System.getProperty("java.version") + " so using platform threads");
+            }
+        }
+        if (maxRequests > 0) {
+            webServer.limitConcurrentRequests(maxRequests);
+        }
         Thread thread = new Thread(webServer);
 
         // start handling requests
@@ -102,12 +284,15 @@ class WebServer implements Runnable {
 
         // issue a final dummy request (as the thread doesn't realise
         // it's been interrupted until another connection comes in to
-        // stop 'serverSocket.accept()' from blocking)
-        Socket socket = new Socket("localhost", port);
-        PrintWriter pw = new PrintWriter(socket.getOutputStream());
-        pw.println("GET /dummy HTTP/1.1");
-        pw.flush();
-        socket.close();
+        // stop 'serverSocket.accept()' from blocking). With NIO the
+        // interrupt wakes it up itself so it may already be closed
+        try {
+            Socket socket = new Socket("localhost", port);
+            PrintWriter pw = new PrintWriter(socket.getOutputStream());
+            pw.println("GET /dummy HTTP/1.1");
+            pw.flush();
+            socket.close();
+        } catch (IOException e) {}
 
         // close everything
         sc.close();